@@ -0,0 +1,22 @@
+package com.labs2160.slacker.plugin.chat.xmpp.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Same as the JMH main class, but always adds the GC profiler so allocation rates
+ * (gc.alloc.rate.norm = bytes per operation) are reported next to the timings.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String [] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
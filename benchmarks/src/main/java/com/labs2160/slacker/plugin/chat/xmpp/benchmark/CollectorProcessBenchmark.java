@@ -0,0 +1,58 @@
+package com.labs2160.slacker.plugin.chat.xmpp.benchmark;
+
+import com.labs2160.slacker.plugin.chat.xmpp.XMPPResource;
+import com.labs2160.slacker.plugin.chat.xmpp.hipchat.HipChatCollector;
+import com.labs2160.slacker.plugin.chat.xmpp.slack.SlackCollector;
+import org.jivesoftware.smack.packet.Message;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full request processing in the collectors (tokenize, invoke handler, render response) with a stub
+ * handler that answers immediately, so only the plugin's own overhead is measured.
+ * Outputs follow the mixed size distribution of {@link MessageCorpus#mixedOutputs}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CollectorProcessBenchmark {
+
+    private HipChatCollector hipChat;
+
+    private SlackCollector slack;
+
+    private Message [] requests;
+
+    private int next;
+
+    @Setup
+    public void setup() {
+        XMPPResource xmpp = new XMPPResource("localhost", "spidey@localhost", "secret", "spidey",
+                "conf.localhost", MessageCorpus.KEYWORD);
+        StubRequestHandler handler = new StubRequestHandler(MessageCorpus.mixedOutputs(256, 42));
+        hipChat = new HipChatCollector(xmpp, handler);
+        slack = new SlackCollector(xmpp, handler);
+
+        String [] bodies = MessageCorpus.roomMessages(256, 1.0, 42);
+        requests = new Message[bodies.length];
+        for (int i = 0; i < bodies.length; i++) {
+            requests[i] = new Message("bot@conf.localhost", Message.Type.groupchat);
+            requests[i].setFrom("room@conf.localhost/Peter Parker");
+            requests[i].setBody(bodies[i]);
+        }
+    }
+
+    @Benchmark
+    public Message hipChatProcess() {
+        return hipChat.process(requests[next++ & 0xff]);
+    }
+
+    @Benchmark
+    public Message slackProcess() {
+        return slack.process(requests[next++ & 0xff]);
+    }
+}
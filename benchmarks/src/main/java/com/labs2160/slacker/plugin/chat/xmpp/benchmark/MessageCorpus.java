@@ -0,0 +1,75 @@
+package com.labs2160.slacker.plugin.chat.xmpp.benchmark;
+
+import java.util.Random;
+
+/**
+ * Deterministic, roughly realistic chat traffic for the benchmarks.
+ * Most room messages are chatter that is not addressed to the bot; action outputs
+ * are mostly short, with the occasional large report (log tails, query results).
+ */
+public final class MessageCorpus {
+
+    public final static String KEYWORD = "@spidey";
+
+    private final static String [] WORDS = {
+        "the", "deploy", "is", "done", "can", "someone", "look", "at", "build", "failing", "again", "on", "master",
+        "lunch", "?", "prod", "staging", "restart", "worker", "ok", "thanks", "lgtm", "ship", "it", "&", "<ok>"
+    };
+
+    private final static String [] COMMANDS = {
+        "status", "oncall", "deploy app1 prod", "restart worker-3", "help", "graph cpu 5days", "tail app1 200"
+    };
+
+    private MessageCorpus() { }
+
+    /**
+     * @param addressedRatio fraction of messages that start with the bot keyword
+     */
+    public static String [] roomMessages(int count, double addressedRatio, long seed) {
+        final Random random = new Random(seed);
+        final String [] messages = new String[count];
+        for (int i = 0; i < count; i++) {
+            if (random.nextDouble() < addressedRatio) {
+                messages[i] = KEYWORD + " " + COMMANDS[random.nextInt(COMMANDS.length)];
+            } else {
+                messages[i] = sentence(random, 3 + random.nextInt(20));
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Outputs with 70% ~100 byte, 25% ~2 KB and 5% ~64 KB responses.
+     */
+    public static String [] mixedOutputs(int count, long seed) {
+        final Random random = new Random(seed);
+        final String [] outputs = new String[count];
+        for (int i = 0; i < count; i++) {
+            double d = random.nextDouble();
+            int size = d < 0.70 ? 100 : d < 0.95 ? 2 * 1024 : 64 * 1024;
+            outputs[i] = output(size, random);
+        }
+        return outputs;
+    }
+
+    /**
+     * Multi-line output of (about) the given size.
+     */
+    public static String output(int size, Random random) {
+        final StringBuilder sb = new StringBuilder(size + 64);
+        while (sb.length() < size) {
+            sb.append(sentence(random, 4 + random.nextInt(12))).append('\n');
+        }
+        sb.setLength(size);
+        return sb.toString();
+    }
+
+    private static String sentence(Random random, int words) {
+        final StringBuilder sb = new StringBuilder();
+        for (int w = 0; w < words; w++) {
+            if (w > 0) sb.append(' ');
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,53 @@
+package com.labs2160.slacker.plugin.chat.xmpp.benchmark;
+
+import com.labs2160.slacker.api.response.TextOutput;
+import com.labs2160.slacker.plugin.chat.xmpp.OutputUtil;
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.jivesoftware.smack.packet.Message;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering action output into a response message (plain body + XHTML-IM).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OutputRenderingBenchmark {
+
+    @Param({"64", "1024", "16384", "262144"})
+    public int outputSize;
+
+    private String text;
+
+    private TextOutput output;
+
+    @Setup
+    public void setup() {
+        text = MessageCorpus.output(outputSize, new Random(42));
+        output = new TextOutput(text);
+    }
+
+    @Benchmark
+    public String plainTextToJabberHtml() {
+        return OutputUtil.plainTextToJabberHtml(text);
+    }
+
+    /** the original escapeHtml4 + replaceAll + concatenation, as a baseline */
+    @Benchmark
+    public String plainTextToJabberHtmlLegacy() {
+        String cleaned = StringEscapeUtils.escapeHtml4(text).replaceAll("\n", "<br/>");
+        return "<html xmlns='http://jabber.org/protocol/xhtml-im'><body xmlns='http://www.w3.org/1999/xhtml'><p>"
+                + cleaned + "</p></body></html>";
+    }
+
+    @Benchmark
+    public Message createResponseMessage() {
+        return OutputUtil.createResponseMessage(output);
+    }
+}
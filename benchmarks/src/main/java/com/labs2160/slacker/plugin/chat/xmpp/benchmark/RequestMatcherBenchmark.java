@@ -0,0 +1,58 @@
+package com.labs2160.slacker.plugin.chat.xmpp.benchmark;
+
+import com.labs2160.slacker.plugin.chat.xmpp.RequestMatcher;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deciding whether room messages are addressed to the bot and tokenizing the ones that are.
+ * One operation = one pass over 1024 room messages.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RequestMatcherBenchmark {
+
+    /** fraction of room messages addressed to the bot */
+    @Param({"0.05", "0.5"})
+    public double addressedRatio;
+
+    private String [] messages;
+
+    private RequestMatcher matcher;
+
+    @Setup
+    public void setup() {
+        messages = MessageCorpus.roomMessages(1024, addressedRatio, 42);
+        matcher = new RequestMatcher(Arrays.asList(MessageCorpus.KEYWORD, "@spiderman"));
+    }
+
+    @Benchmark
+    public void matchAndTokenize(Blackhole bh) {
+        for (String body : messages) {
+            if (matcher.isAddressed(body)) {
+                bh.consume(matcher.tokenize(body));
+            }
+        }
+    }
+
+    /** the original startsWith + split("\\s+") + copyOfRange, as a baseline */
+    @Benchmark
+    public void matchAndTokenizeLegacy(Blackhole bh) {
+        for (String body : messages) {
+            if (body.startsWith(MessageCorpus.KEYWORD)) {
+                String [] tokens = body.split("\\s+");
+                if (MessageCorpus.KEYWORD.equals(tokens[0])) {
+                    tokens = Arrays.copyOfRange(tokens, 1, tokens.length);
+                }
+                bh.consume(tokens);
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.labs2160.slacker.plugin.chat.xmpp.benchmark;
+
+import com.labs2160.slacker.api.RequestHandler;
+import com.labs2160.slacker.api.SlackerRequest;
+import com.labs2160.slacker.api.response.SlackerOutput;
+import com.labs2160.slacker.api.response.TextOutput;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Answers every request immediately with the next of a fixed set of outputs.
+ */
+public class StubRequestHandler implements RequestHandler {
+
+    private final TextOutput [] outputs;
+
+    private int next;
+
+    public StubRequestHandler(String [] outputs) {
+        this.outputs = new TextOutput[outputs.length];
+        for (int i = 0; i < outputs.length; i++) {
+            this.outputs[i] = new TextOutput(outputs[i]);
+        }
+    }
+
+    @Override
+    public Future<SlackerOutput> handle(SlackerRequest request) {
+        final SlackerOutput output = outputs[next++ % outputs.length];
+        final FutureTask<SlackerOutput> future = new FutureTask<>(new Callable<SlackerOutput>() {
+            @Override
+            public SlackerOutput call() {
+                return output;
+            }
+        });
+        future.run();
+        return future;
+    }
+}
@@ -0,0 +1,103 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides whether a request is processed or turned away right away, so that one noisy sender or room
+ * cannot fill up the dispatch queues and delay everybody else.
+ * Each sender and each room has a token bucket, and the number of requests in flight (dispatched
+ * but not yet answered) is capped. All limits are off by default.
+ */
+public class AdmissionControl {
+
+    public final static int DEFAULT_SENDER_BURST = 5;
+
+    public final static int DEFAULT_ROOM_BURST = 20;
+
+    /** buckets kept before the idle (full) ones are dropped */
+    private final static int MAX_BUCKETS = 10000;
+
+    public enum Result { ADMITTED, SENDER_LIMITED, ROOM_LIMITED, OVERLOADED }
+
+    private final double senderRate;
+
+    private final int senderBurst;
+
+    private final double roomRate;
+
+    private final int roomBurst;
+
+    private final int maxInFlight;
+
+    private final ConcurrentMap<String, TokenBucket> senders = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, TokenBucket> rooms = new ConcurrentHashMap<>();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * @param senderRate requests per second per sender (0 for no limit)
+     * @param roomRate requests per second per room (0 for no limit)
+     * @param maxInFlight requests dispatched but not yet answered (0 for no limit)
+     */
+    public AdmissionControl(double senderRate, int senderBurst, double roomRate, int roomBurst, int maxInFlight) {
+        this.senderRate = senderRate;
+        this.senderBurst = senderBurst;
+        this.roomRate = roomRate;
+        this.roomBurst = roomBurst;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Admit a request; an admitted request must be {@link #release() released} once it has been answered.
+     *
+     * @param sender who sent the request (e.g. bare JID or room occupant JID)
+     * @param roomId room the request was sent to, null for one-on-one chats
+     */
+    public Result tryAcquire(String sender, String roomId) {
+        if (senderRate > 0 && !bucket(senders, sender, senderRate, senderBurst).tryAcquire()) {
+            return Result.SENDER_LIMITED;
+        }
+        if (roomId != null && roomRate > 0 && !bucket(rooms, roomId, roomRate, roomBurst).tryAcquire()) {
+            return Result.ROOM_LIMITED;
+        }
+        if (maxInFlight > 0) {
+            if (inFlight.incrementAndGet() > maxInFlight) {
+                inFlight.decrementAndGet();
+                return Result.OVERLOADED;
+            }
+        } else {
+            inFlight.incrementAndGet();
+        }
+        return Result.ADMITTED;
+    }
+
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    private static TokenBucket bucket(ConcurrentMap<String, TokenBucket> buckets, String key, double rate, int burst) {
+        TokenBucket bucket = buckets.get(key);
+        if (bucket == null) {
+            if (buckets.size() >= MAX_BUCKETS) purgeIdle(buckets);
+            final TokenBucket created = new TokenBucket(rate, burst);
+            bucket = buckets.putIfAbsent(key, created);
+            if (bucket == null) bucket = created;
+        }
+        return bucket;
+    }
+
+    private static void purgeIdle(ConcurrentMap<String, TokenBucket> buckets) {
+        final Iterator<TokenBucket> it = buckets.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().isFull()) it.remove();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-command settings (e.g. cache TTLs or timeouts) configured as a comma-separated list of commands with
+ * optional values, e.g. <code>status:30000, oncall, build status:5000</code>.
+ * A request gets the value of the longest command it starts with.
+ */
+public class CommandTable {
+
+    private static class Command {
+        final String prefix;
+        final long value;
+
+        Command(String prefix, long value) {
+            this.prefix = prefix;
+            this.value = value;
+        }
+    }
+
+    private final List<Command> commands = new ArrayList<>();
+
+    /**
+     * @param defaultValue value of commands without their own
+     */
+    public CommandTable(String commands, long defaultValue) {
+        for (String command : (commands == null ? "" : commands).split(",")) {
+            command = command.trim();
+            if (command.length() == 0) continue;
+            long value = defaultValue;
+            final int colon = command.lastIndexOf(':');
+            if (colon > 0) {
+                value = Long.parseLong(command.substring(colon + 1).trim());
+                command = command.substring(0, colon);
+            }
+            this.commands.add(new Command(RequestMatcher.normalize(command.trim().split("\\s+")), value));
+        }
+    }
+
+    public boolean isEmpty() {
+        return commands.isEmpty();
+    }
+
+    /**
+     * @param key normalized request (see {@link RequestMatcher#normalize(String[])})
+     * @return true if the request starts with one of the commands
+     */
+    public boolean matches(String key) {
+        for (Command command : commands) {
+            if (key.equals(command.prefix) || key.startsWith(command.prefix + " ")) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param key normalized request (see {@link RequestMatcher#normalize(String[])})
+     * @return value of the longest command the request starts with, <code>otherwise</code> if none
+     */
+    public long valueOf(String key, long otherwise) {
+        Command match = null;
+        for (Command command : commands) {
+            if ((key.equals(command.prefix) || key.startsWith(command.prefix + " "))
+                    && (match == null || command.prefix.length() > match.prefix.length())) {
+                match = command;
+            }
+        }
+        return match == null ? otherwise : match.value;
+    }
+}
@@ -0,0 +1,45 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Maps keys (room and user JIDs) to one of a fixed number of nodes (connections).
+ * A key always maps to the same node, and changing the number of nodes only moves the keys of the
+ * nodes that were added or removed. Each node is placed on the ring many times to even out the load.
+ */
+class ConsistentHash {
+
+    private final static int REPLICAS = 64;
+
+    private final TreeMap<Integer, Integer> ring = new TreeMap<>();
+
+    private final int nodes;
+
+    ConsistentHash(int nodes) {
+        this.nodes = nodes;
+        for (int node = 0; node < nodes; node++) {
+            for (int replica = 0; replica < REPLICAS; replica++) {
+                ring.put(hash("node-" + node + "-" + replica), node);
+            }
+        }
+    }
+
+    int nodeFor(String key) {
+        if (nodes <= 1) return 0;
+        Map.Entry<Integer, Integer> entry = ring.ceilingEntry(hash(key));
+        if (entry == null) entry = ring.firstEntry();
+        return entry.getValue();
+    }
+
+    /** String.hashCode() spread with the murmur3 finalizer, so that similar JIDs land far apart */
+    private static int hash(String key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,139 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import com.labs2160.slacker.plugin.chat.xmpp.metrics.ResourceMetrics;
+
+import javax.net.SocketFactory;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Creates sockets that count the bytes read and written as they go over the wire (i.e. after compression).
+ * As long as a connection is not compressed, these are also the bytes of the XML stream; once it is,
+ * the XML stream is counted by {@link CountingZlibCompression}.
+ */
+class CountingSocketFactory extends SocketFactory {
+
+    private final ResourceMetrics metrics;
+
+    CountingSocketFactory(ResourceMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Socket createSocket() {
+        return new CountingSocket(metrics);
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        final Socket socket = createSocket();
+        socket.connect(new InetSocketAddress(host, port));
+        return socket;
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        final Socket socket = createSocket();
+        socket.bind(new InetSocketAddress(localHost, localPort));
+        socket.connect(new InetSocketAddress(host, port));
+        return socket;
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        final Socket socket = createSocket();
+        socket.connect(new InetSocketAddress(host, port));
+        return socket;
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port, InetAddress localHost, int localPort) throws IOException {
+        final Socket socket = createSocket();
+        socket.bind(new InetSocketAddress(localHost, localPort));
+        socket.connect(new InetSocketAddress(host, port));
+        return socket;
+    }
+
+    static class CountingSocket extends Socket {
+
+        final ResourceMetrics metrics;
+
+        /** set when the compression handler takes over counting the XML stream read from this socket */
+        volatile boolean inputCompressed;
+
+        volatile boolean outputCompressed;
+
+        private InputStream in;
+
+        private OutputStream out;
+
+        CountingSocket(ResourceMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public synchronized InputStream getInputStream() throws IOException {
+            if (in == null) in = new SocketInputStream(this, super.getInputStream());
+            return in;
+        }
+
+        @Override
+        public synchronized OutputStream getOutputStream() throws IOException {
+            if (out == null) out = new SocketOutputStream(this, super.getOutputStream());
+            return out;
+        }
+    }
+
+    static class SocketInputStream extends FilterInputStream {
+
+        final CountingSocket socket;
+
+        SocketInputStream(CountingSocket socket, InputStream in) {
+            super(in);
+            this.socket = socket;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = in.read();
+            if (b >= 0) socket.metrics.socketRead(1, !socket.inputCompressed);
+            return b;
+        }
+
+        @Override
+        public int read(byte [] b, int off, int len) throws IOException {
+            final int n = in.read(b, off, len);
+            if (n > 0) socket.metrics.socketRead(n, !socket.inputCompressed);
+            return n;
+        }
+    }
+
+    static class SocketOutputStream extends FilterOutputStream {
+
+        final CountingSocket socket;
+
+        SocketOutputStream(CountingSocket socket, OutputStream out) {
+            super(out);
+            this.socket = socket;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            socket.metrics.socketWritten(1, !socket.outputCompressed);
+        }
+
+        @Override
+        public void write(byte [] b, int off, int len) throws IOException {
+            // not byte by byte as FilterOutputStream would
+            out.write(b, off, len);
+            socket.metrics.socketWritten(len, !socket.outputCompressed);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import com.labs2160.slacker.plugin.chat.xmpp.CountingSocketFactory.SocketInputStream;
+import com.labs2160.slacker.plugin.chat.xmpp.CountingSocketFactory.SocketOutputStream;
+import com.labs2160.slacker.plugin.chat.xmpp.metrics.ResourceMetrics;
+import org.jivesoftware.smack.SmackConfiguration;
+import org.jivesoftware.smack.compression.Java7ZlibInputOutputStream;
+import org.jivesoftware.smack.compression.XMPPInputOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.util.List;
+
+/**
+ * Smack's zlib stream compression (XEP-0138), counting the bytes of the XML stream before compression.
+ * Smack uses the first handler for a method the server offers, so this one is put ahead of Smack's own.
+ * Streams of sockets that do not count (e.g. TLS) are compressed without counting.
+ */
+class CountingZlibCompression extends XMPPInputOutputStream {
+
+    private final static Logger logger = LoggerFactory.getLogger(CountingZlibCompression.class);
+
+    private static boolean installed;
+
+    private final XMPPInputOutputStream zlib = new Java7ZlibInputOutputStream();
+
+    private CountingZlibCompression() {
+        super("zlib");
+    }
+
+    /**
+     * Put the handler ahead of Smack's zlib handler; without it, compressed connections count wire bytes only.
+     */
+    @SuppressWarnings("unchecked")
+    static synchronized void install() {
+        if (installed) return;
+        installed = true;
+        try {
+            final Field field = SmackConfiguration.class.getDeclaredField("compressionHandlers");
+            field.setAccessible(true);
+            ((List<XMPPInputOutputStream>) field.get(null)).add(0, new CountingZlibCompression());
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.warn("Cannot count uncompressed bytes - {}", e.toString());
+        }
+    }
+
+    @Override
+    public boolean isSupported() {
+        return zlib.isSupported();
+    }
+
+    @Override
+    public InputStream getInputStream(InputStream socketIn) throws IOException {
+        final InputStream inflated = zlib.getInputStream(socketIn);
+        if (!(socketIn instanceof SocketInputStream)) return inflated;
+        final CountingSocketFactory.CountingSocket socket = ((SocketInputStream) socketIn).socket;
+        socket.inputCompressed = true;
+        final ResourceMetrics metrics = socket.metrics;
+        return new FilterInputStream(inflated) {
+            @Override
+            public int read() throws IOException {
+                final int b = this.in.read();
+                if (b >= 0) metrics.streamRead(1);
+                return b;
+            }
+
+            @Override
+            public int read(byte [] b, int off, int len) throws IOException {
+                final int n = this.in.read(b, off, len);
+                if (n > 0) metrics.streamRead(n);
+                return n;
+            }
+        };
+    }
+
+    @Override
+    public OutputStream getOutputStream(OutputStream socketOut) throws IOException {
+        final OutputStream deflated = zlib.getOutputStream(socketOut);
+        if (!(socketOut instanceof SocketOutputStream)) return deflated;
+        final CountingSocketFactory.CountingSocket socket = ((SocketOutputStream) socketOut).socket;
+        socket.outputCompressed = true;
+        final ResourceMetrics metrics = socket.metrics;
+        return new FilterOutputStream(deflated) {
+            @Override
+            public void write(int b) throws IOException {
+                this.out.write(b);
+                metrics.streamWritten(1);
+            }
+
+            @Override
+            public void write(byte [] b, int off, int len) throws IOException {
+                this.out.write(b, off, len);
+                metrics.streamWritten(len);
+            }
+        };
+    }
+}
@@ -0,0 +1,131 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Bounds how long a collector waits for the request handler, so that a hung action does not hold a
+ * dispatch thread (and every request queued behind it) forever.
+ * <p>
+ * Each command can have its own timeout. When it passes, the handler's future is cancelled - or, with
+ * late responses enabled, watched a while longer so that the result can still be posted as a follow-up.
+ */
+public class Deadlines {
+
+    /** ms */
+    public final static long DEFAULT_LATE_TIMEOUT = 10 * 60 * 1000;
+
+    /** requests watched for a late result at the same time at most; others are cancelled */
+    public final static int MAX_LATE_WATCHERS = 32;
+
+    private final static Logger logger = LoggerFactory.getLogger(Deadlines.class);
+
+    /** Posts the result of a request that missed its deadline */
+    public interface FollowUp<V> {
+        void send(V result);
+    }
+
+    /** The deadline passed, but the request is watched and its result will be posted by the follow-up */
+    public static class LateResponseException extends TimeoutException {
+
+        private static final long serialVersionUID = 1L;
+
+        public LateResponseException(TimeoutException cause) {
+            super(cause.getMessage());
+            initCause(cause);
+        }
+    }
+
+    private final long timeoutMillis;
+
+    /** timeout by command */
+    private final CommandTable commands;
+
+    private final long lateTimeoutMillis;
+
+    private final ThreadPoolExecutor watchers;
+
+    /**
+     * @param timeoutMillis timeout of commands without their own (0 for none)
+     * @param commandTimeouts e.g. <code>status:5000, build:600000</code>; 0 for no timeout
+     * @param lateTimeoutMillis how long results are still waited for after the timeout (0 to cancel right away)
+     */
+    public Deadlines(String name, long timeoutMillis, String commandTimeouts, long lateTimeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        this.commands = new CommandTable(commandTimeouts, timeoutMillis);
+        this.lateTimeoutMillis = lateTimeoutMillis;
+        this.watchers = new ThreadPoolExecutor(0, MAX_LATE_WATCHERS, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new NamedThreadFactory(name));
+    }
+
+    public boolean isLateResponseEnabled() {
+        return lateTimeoutMillis > 0;
+    }
+
+    /**
+     * @return timeout of the request in ms, 0 if there is none
+     */
+    public long timeoutOf(String [] tokens) {
+        return commands.isEmpty() ? timeoutMillis : commands.valueOf(RequestMatcher.normalize(tokens), timeoutMillis);
+    }
+
+    /**
+     * Wait for the result of the request until its deadline.
+     *
+     * @param followUp gets the result if it arrives after the deadline (null to cancel right away)
+     * @throws LateResponseException if the deadline passed and the follow-up will get the result
+     * @throws TimeoutException if the deadline passed and the request was cancelled
+     */
+    public <V> V await(String [] tokens, Future<V> result, FollowUp<V> followUp)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        final long timeout = timeoutOf(tokens);
+        if (timeout <= 0) {
+            return result.get();
+        }
+        try {
+            return result.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            if (followUp != null && lateTimeoutMillis > 0 && watch(result, followUp)) {
+                throw new LateResponseException(e);
+            }
+            result.cancel(true);
+            throw e;
+        }
+    }
+
+    /**
+     * @return false if there are too many requests watched already
+     */
+    private <V> boolean watch(final Future<V> result, final FollowUp<V> followUp) {
+        try {
+            watchers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        followUp.send(result.get(lateTimeoutMillis, TimeUnit.MILLISECONDS));
+                    } catch (TimeoutException | InterruptedException e) {
+                        result.cancel(true);
+                    } catch (ExecutionException | CancellationException e) {
+                        logger.warn("Late request failed - {}", e.toString());
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    public void shutdown() {
+        watchers.shutdownNow();
+    }
+}
@@ -0,0 +1,80 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smackx.delay.DelayInformationManager;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the messages seen within a time window so that messages the server delivers again
+ * (after a reconnect or when a room is rejoined) are not processed twice.
+ * <p>
+ * A message is identified by its sender and stanza id. Messages without an id are identified by sender,
+ * body and delay timestamp; without a delay timestamp a message cannot be told apart from the same request
+ * sent again on purpose, so it is never treated as a duplicate.
+ */
+public class DuplicateFilter {
+
+    public final static long DEFAULT_WINDOW = 5 * 60 * 1000;
+
+    public final static int DEFAULT_CAPACITY = 10000;
+
+    private final long windowMillis;
+
+    private final int capacity;
+
+    /** message key -> time it was first seen (ms), oldest first */
+    private final LinkedHashMap<String, Long> seen = new LinkedHashMap<>();
+
+    /**
+     * @param windowMillis how long messages are remembered (0 to disable the filter)
+     * @param capacity messages remembered at most; the oldest are forgotten first
+     */
+    public DuplicateFilter(long windowMillis, int capacity) {
+        this.windowMillis = windowMillis;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return true if the message has been seen within the window; otherwise it is remembered
+     */
+    public boolean isDuplicate(Message msg) {
+        return isDuplicate(keyOf(msg), System.currentTimeMillis());
+    }
+
+    synchronized boolean isDuplicate(String key, long now) {
+        if (key == null || windowMillis <= 0) return false;
+        final Iterator<Map.Entry<String, Long>> oldest = seen.entrySet().iterator();
+        while (oldest.hasNext()) {
+            final Map.Entry<String, Long> entry = oldest.next();
+            if (now - entry.getValue() < windowMillis && seen.size() < capacity) break;
+            oldest.remove();
+        }
+        if (seen.containsKey(key)) return true;
+        seen.put(key, now);
+        return false;
+    }
+
+    synchronized int size() {
+        return seen.size();
+    }
+
+    /**
+     * @return the key identifying the message, null if it cannot be identified
+     */
+    static String keyOf(Message msg) {
+        final String from = msg.getFrom();
+        final String id = msg.getStanzaId();
+        if (id != null && id.length() > 0) {
+            return from + "#" + id;
+        }
+        final Date stamp = DelayInformationManager.getDelayTimestamp(msg);
+        if (stamp == null) {
+            return null;
+        }
+        return from + "@" + stamp.getTime() + ":" + Integer.toHexString(String.valueOf(msg.getBody()).hashCode());
+    }
+}
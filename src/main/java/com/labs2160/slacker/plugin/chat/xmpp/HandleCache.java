@@ -0,0 +1,205 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrent cache of chat and room handles. Lookups of cached handles do not lock, each handle is
+ * created once even when several threads ask for it at the same time, and handles are evicted when
+ * they have not been used for a while or when the cache grows beyond its maximum size.
+ */
+public class HandleCache<K, V> {
+
+    /** Creates the handle for a key */
+    public interface Factory<K, V> {
+        V create(K key);
+    }
+
+    /** Releases an evicted handle */
+    public interface RemovalListener<K, V> {
+        void removed(K key, V value);
+    }
+
+    private final Factory<K, V> factory;
+
+    private final RemovalListener<K, V> removalListener;
+
+    private final int maxSize;
+
+    private final long idleTimeoutNanos;
+
+    private final ConcurrentMap<K, Handle<K, V>> handles = new ConcurrentHashMap<>();
+
+    private final AtomicLong lastCleanUp = new AtomicLong(System.nanoTime());
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxSize handles kept at most (0 for no limit)
+     * @param idleTimeoutMillis handles unused for this long are evicted (0 to keep them)
+     * @param removalListener called for evicted handles, may be null
+     */
+    public HandleCache(Factory<K, V> factory, RemovalListener<K, V> removalListener, int maxSize, long idleTimeoutMillis) {
+        this.factory = factory;
+        this.removalListener = removalListener;
+        this.maxSize = maxSize;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+    }
+
+    /**
+     * @return the cached handle, created if there is none
+     */
+    public V get(K key) {
+        while (true) {
+            Handle<K, V> handle = handles.get(key);
+            if (handle == null) {
+                final Handle<K, V> created = new Handle<>();
+                handle = handles.putIfAbsent(key, created);
+                if (handle == null) {
+                    handle = created;
+                    cleanUp();
+                }
+            }
+            handle.lastAccess = System.nanoTime();
+            final V value;
+            try {
+                value = handle.get(key, factory, removalListener);
+            } catch (RuntimeException e) {
+                // let the next caller try again
+                handles.remove(key, handle);
+                throw e;
+            }
+            if (!handle.removed) return value;
+            // evicted while it was being looked up: its value has been released, look the key up again
+        }
+    }
+
+    /**
+     * @return the cached handle, null if there is none
+     */
+    public V getIfPresent(K key) {
+        final Handle<K, V> handle = handles.get(key);
+        return handle == null ? null : handle.value;
+    }
+
+    public void invalidate(K key) {
+        final Handle<K, V> handle = handles.remove(key);
+        if (handle != null) removed(key, handle);
+    }
+
+    public int size() {
+        return handles.size();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Evict idle handles and, if the cache is still too large, the least recently used ones.
+     * Runs on cache misses; idle handles are looked for at most every quarter of the idle timeout.
+     */
+    public void cleanUp() {
+        final long now = System.nanoTime();
+        final long last = lastCleanUp.get();
+        if (idleTimeoutNanos > 0 && now - last >= idleTimeoutNanos / 4 && lastCleanUp.compareAndSet(last, now)) {
+            for (Map.Entry<K, Handle<K, V>> entry : handles.entrySet()) {
+                if (now - entry.getValue().lastAccess >= idleTimeoutNanos) {
+                    evict(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        if (maxSize > 0 && handles.size() > maxSize) {
+            trim();
+        }
+    }
+
+    /**
+     * Evict the least recently used handles down to 3/4 of the maximum size so that
+     * the next few misses do not have to trim again.
+     */
+    private synchronized void trim() {
+        final int size = handles.size();
+        if (size <= maxSize) return;
+        final long [] accessed = new long[size];
+        int n = 0;
+        for (Handle<K, V> handle : handles.values()) {
+            if (n == accessed.length) break;
+            accessed[n++] = handle.lastAccess;
+        }
+        if (n == 0) return;
+        Arrays.sort(accessed, 0, n);
+        final long cutoff = accessed[Math.min(size - (maxSize - maxSize / 4), n) - 1];
+        for (Map.Entry<K, Handle<K, V>> entry : handles.entrySet()) {
+            if (entry.getValue().lastAccess <= cutoff) {
+                evict(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void evict(K key, Handle<K, V> handle) {
+        if (handles.remove(key, handle)) {
+            evictions.incrementAndGet();
+            removed(key, handle);
+        }
+    }
+
+    private void removed(K key, Handle<K, V> handle) {
+        final V value = handle.remove();
+        if (value != null && removalListener != null) {
+            removalListener.removed(key, value);
+        }
+    }
+
+    private static class Handle<K, V> {
+
+        private volatile V value;
+
+        private volatile long lastAccess = System.nanoTime();
+
+        /** set once the handle has been evicted or invalidated */
+        private volatile boolean removed;
+
+        /** guards publishing the value against removal, held briefly unlike the creation lock (this) */
+        private final Object state = new Object();
+
+        V get(K key, Factory<K, V> factory, RemovalListener<K, V> removalListener) {
+            V v = value;
+            if (v == null) {
+                synchronized (this) {
+                    v = value;
+                    if (v == null) {
+                        v = factory.create(key);
+                        // removed while the value was being created, after the removal listener ran
+                        if (!publish(v) && removalListener != null) removalListener.removed(key, v);
+                    }
+                }
+            }
+            return v;
+        }
+
+        /**
+         * @return false if the handle has been removed already
+         */
+        private boolean publish(V v) {
+            synchronized (state) {
+                value = v;
+                return !removed;
+            }
+        }
+
+        /**
+         * @return the value to release, null if it has not been created yet (whoever creates it then releases it)
+         */
+        V remove() {
+            synchronized (state) {
+                removed = true;
+                return value;
+            }
+        }
+    }
+}
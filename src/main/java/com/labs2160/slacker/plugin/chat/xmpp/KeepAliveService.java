@@ -0,0 +1,177 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import com.labs2160.slacker.plugin.chat.xmpp.metrics.ResourceMetrics;
+import org.jivesoftware.smack.PacketListener;
+import org.jivesoftware.smack.SmackException.NotConnectedException;
+import org.jivesoftware.smack.filter.PacketFilter;
+import org.jivesoftware.smack.packet.PlainStreamElement;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.tcp.XMPPTCPConnection;
+import org.jivesoftware.smackx.ping.PingManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps an idle connection open and detects connections that are no longer responsive.
+ * Nothing is sent when there has been recent traffic in both directions - unless the last ping went unanswered.
+ * In PING mode, each keepalive is an XEP-0199 ping to the server; after <code>maxMissed</code>
+ * consecutive unanswered pings, the connection is considered dead and handed to <code>onDead</code>.
+ * WHITESPACE mode only sends a single space (what HipChat recommends) and cannot detect dead connections.
+ */
+public class KeepAliveService {
+
+    private final static Logger logger = LoggerFactory.getLogger(KeepAliveService.class);
+
+    public enum Mode { PING, WHITESPACE, NONE }
+
+    private final static PlainStreamElement WHITESPACE = new PlainStreamElement() {
+        @Override
+        public CharSequence toXML() {
+            return " ";
+        }
+    };
+
+    private final XMPPTCPConnection conn;
+
+    private final Mode mode;
+
+    private final long intervalMillis;
+
+    private final long timeoutMillis;
+
+    private final int maxMissed;
+
+    private final Runnable onDead;
+
+    private ScheduledExecutorService scheduler;
+
+    private ResourceMetrics metrics;
+
+    private volatile long lastOutbound = System.currentTimeMillis();
+
+    private volatile long lastRoundTripMillis = -1;
+
+    private volatile int missed;
+
+    public KeepAliveService(XMPPTCPConnection conn, Mode mode, long intervalMillis, long timeoutMillis,
+            int maxMissed, Runnable onDead) {
+        this.conn = conn;
+        this.mode = mode;
+        this.intervalMillis = intervalMillis;
+        this.timeoutMillis = timeoutMillis;
+        this.maxMissed = Math.max(maxMissed, 1);
+        this.onDead = onDead;
+        conn.addPacketSendingListener(new PacketListener() {
+            @Override
+            public void processPacket(Stanza stanza) {
+                lastOutbound = System.currentTimeMillis();
+            }
+        }, new PacketFilter() {
+            @Override
+            public boolean accept(Stanza stanza) {
+                return true;
+            }
+        });
+    }
+
+    /**
+     * @param metrics receives the result of each ping (optional)
+     */
+    public void setMetrics(ResourceMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public synchronized void start() {
+        if (scheduler != null || mode == Mode.NONE) return;
+        logger.info("Scheduling {} keepalive every {} ms", mode, intervalMillis);
+        scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("xmpp-keepalive"));
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    keepAlive();
+                } catch (RuntimeException e) {
+                    logger.error("Unexpected keepalive error", e);
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Forget the unanswered pings of the previous connection.
+     * Called once the connection has been established again.
+     */
+    public void reconnected() {
+        missed = 0;
+    }
+
+    /**
+     * @return false if the last <code>maxMissed</code> pings went unanswered
+     */
+    public boolean isAlive() {
+        return missed < maxMissed;
+    }
+
+    /**
+     * @return round trip time of the last answered ping, or -1 if none yet
+     */
+    public long getLastRoundTripMillis() {
+        return lastRoundTripMillis;
+    }
+
+    public int getMissed() {
+        return missed;
+    }
+
+    void keepAlive() {
+        if (!conn.isAuthenticated()) {
+            return; // nothing to keep alive - reconnecting is up to the ReconnectManager
+        }
+        final long now = System.currentTimeMillis();
+        if (missed == 0 && now - lastOutbound < intervalMillis && now - conn.getLastStanzaReceived() < intervalMillis) {
+            logger.trace("Recent traffic, skipping keepalive");
+            return;
+        }
+
+        try {
+            if (mode == Mode.WHITESPACE) {
+                logger.trace("Sending whitespace keepalive");
+                conn.send(WHITESPACE);
+                lastOutbound = now;
+            } else {
+                final long start = System.nanoTime();
+                if (PingManager.getInstanceFor(conn).pingMyServer(false, timeoutMillis)) {
+                    final long roundTrip = System.nanoTime() - start;
+                    lastRoundTripMillis = TimeUnit.NANOSECONDS.toMillis(roundTrip);
+                    missed = 0;
+                    if (metrics != null) metrics.keepAliveAnswered(roundTrip);
+                    logger.trace("Keepalive ping answered in {} ms", lastRoundTripMillis);
+                } else {
+                    missed++;
+                    if (metrics != null) metrics.keepAliveMissed();
+                    logger.warn("Keepalive ping not answered within {} ms ({} of {})", timeoutMillis, missed, maxMissed);
+                    if (missed >= maxMissed) dead();
+                }
+            }
+        } catch (NotConnectedException e) {
+            logger.warn("Keepalive failed - {}", e.getMessage());
+            dead();
+        }
+    }
+
+    private void dead() {
+        logger.error("Connection is not responding, handing over to recovery");
+        onDead.run();
+    }
+}
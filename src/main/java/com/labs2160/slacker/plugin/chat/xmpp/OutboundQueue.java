@@ -0,0 +1,321 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import org.jivesoftware.smack.packet.Stanza;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue of outbound stanzas drained by a single sender thread.
+ * Sending is rate-limited overall and per destination (token buckets); destinations
+ * take turns so one busy room does not hold up messages to everyone else.
+ */
+public class OutboundQueue {
+
+    private final static Logger logger = LoggerFactory.getLogger(OutboundQueue.class);
+
+    /** What to do with a new message when the queue is full */
+    public enum OverflowPolicy {
+        /** drop the new message */
+        REJECT,
+        /** drop the oldest pending message of the destination with the largest backlog (never the rest of a split
+         *  message that is partly sent) */
+        DROP_OLDEST,
+        /** wait for room in the queue (up to the block timeout), then drop the new message */
+        BLOCK
+    }
+
+    /** Performs the actual send on the sender thread */
+    public interface StanzaSender {
+        boolean send(Stanza stanza);
+    }
+
+    private static class Destination {
+        /** messages in order; the chunks of a split message are queued and dropped together */
+        final Deque<Deque<Stanza>> pending = new ArrayDeque<>();
+        final TokenBucket bucket;
+        /** stanzas pending */
+        int size;
+        /** true while the first message is partly sent - the rest of it must not be dropped */
+        boolean sending;
+
+        Destination(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+
+        boolean hasDroppable() {
+            return pending.size() > (sending ? 1 : 0);
+        }
+    }
+
+    private final String name;
+
+    private final StanzaSender sender;
+
+    private final int capacity;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notEmpty = lock.newCondition();
+
+    private final Condition notFull = lock.newCondition();
+
+    private final Map<String, Destination> destinations = new HashMap<>();
+
+    /** destinations with pending messages, in round-robin order */
+    private final Deque<Destination> active = new ArrayDeque<>();
+
+    private TokenBucket globalBucket = new TokenBucket(0, 1);
+
+    private double destinationRate;
+
+    private int destinationBurst = 1;
+
+    private long blockTimeoutMillis = 5000;
+
+    private int size;
+
+    private volatile boolean running;
+
+    /** no more messages are taken once shut down */
+    private volatile boolean shutDown;
+
+    private Thread senderThread;
+
+    public OutboundQueue(String name, StanzaSender sender, int capacity, OverflowPolicy overflowPolicy) {
+        this.name = name;
+        this.sender = sender;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * @param rate messages per second over all destinations (0 for unlimited)
+     * @param burst messages that may be sent at once after being idle
+     */
+    public void setGlobalRateLimit(double rate, int burst) {
+        this.globalBucket = new TokenBucket(rate, burst);
+    }
+
+    /**
+     * @param rate messages per second to a single destination (0 for unlimited)
+     * @param burst messages that may be sent at once to an idle destination
+     */
+    public void setDestinationRateLimit(double rate, int burst) {
+        this.destinationRate = rate;
+        this.destinationBurst = burst;
+    }
+
+    public void setBlockTimeoutMillis(long blockTimeoutMillis) {
+        this.blockTimeoutMillis = blockTimeoutMillis;
+    }
+
+    /**
+     * Start the sender thread - does nothing once shut down.
+     */
+    public synchronized void start() {
+        if (running || shutDown) return;
+        running = true;
+        senderThread = new NamedThreadFactory(name).newThread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        });
+        senderThread.start();
+        logger.debug("Started outbound queue {} (capacity={}, overflowPolicy={})", name, capacity, overflowPolicy);
+    }
+
+    /**
+     * Stop the sender thread, giving it up to <code>drainMillis</code> to send what is still pending.
+     */
+    public synchronized void shutdown(long drainMillis) {
+        shutDown = true;
+        if (!running) return;
+        long deadline = System.currentTimeMillis() + drainMillis;
+        while (getPendingCount() > 0 && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        running = false;
+        senderThread.interrupt();
+        int dropped = getPendingCount();
+        if (dropped > 0) logger.warn("Outbound queue {} shut down with {} unsent messages", name, dropped);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Queue a stanza for sending.
+     *
+     * @param destination key used for per-destination rate limiting (usually the recipient JID)
+     * @return false if the message was dropped
+     */
+    public boolean offer(String destination, Stanza stanza) {
+        return offer(destination, stanza, true);
+    }
+
+    /**
+     * @param mayBlock false to drop the new message rather than wait for room with the BLOCK policy
+     *                 (e.g. when called on the XMPP listener thread)
+     * @return false if the message was dropped or the queue was shut down
+     */
+    public boolean offer(String destination, Stanza stanza, boolean mayBlock) {
+        return offer(destination, Collections.singletonList(stanza), mayBlock);
+    }
+
+    /**
+     * Queue the chunks of a split message: either all of them are queued or none, they are sent in order,
+     * and DROP_OLDEST drops them together (and never once the first chunk has been sent).
+     *
+     * @param mayBlock see {@link #offer(String, Stanza, boolean)}
+     * @return false if the message was dropped or the queue was shut down
+     */
+    public boolean offer(String destination, List<? extends Stanza> stanzas, boolean mayBlock) {
+        if (shutDown) {
+            logger.debug("Outbound queue {} shut down - dropped message to {}", name, destination);
+            return false;
+        }
+        if (stanzas.size() > capacity) {
+            logger.warn("Outbound queue {} too small for a message of {} parts to {}", name, stanzas.size(), destination);
+            return false;
+        }
+        lock.lock();
+        try {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+            while (size + stanzas.size() > capacity) {
+                if (overflowPolicy == OverflowPolicy.DROP_OLDEST && dropOldest()) {
+                    continue;
+                } else if (overflowPolicy == OverflowPolicy.BLOCK && mayBlock && nanos > 0) {
+                    nanos = notFull.awaitNanos(nanos);
+                } else {
+                    logger.warn("Outbound queue {} full - dropped message to {}", name, destination);
+                    return false;
+                }
+            }
+
+            Destination d = destinations.get(destination);
+            if (d == null) {
+                if (destinations.size() >= capacity) purgeIdleDestinations();
+                d = new Destination(new TokenBucket(destinationRate, destinationBurst));
+                destinations.put(destination, d);
+            }
+            if (d.pending.isEmpty()) active.addLast(d);
+            d.pending.addLast(new ArrayDeque<Stanza>(stanzas));
+            d.size += stanzas.size();
+            size += stanzas.size();
+            notEmpty.signal();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getPendingCount() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void drain() {
+        while (running) {
+            Stanza next;
+            lock.lock();
+            try {
+                next = take();
+            } catch (InterruptedException e) {
+                break;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                sender.send(next);
+            } catch (RuntimeException e) {
+                logger.error("Unexpected error while sending message to {}", next.getTo(), e);
+            }
+        }
+        logger.debug("Outbound queue {} sender stopped", name);
+    }
+
+    /** Wait for the next stanza that may be sent under the rate limits.  Must hold the lock. */
+    private Stanza take() throws InterruptedException {
+        while (true) {
+            long waitNanos = Long.MAX_VALUE;
+            if (size > 0) {
+                waitNanos = globalBucket.nanosUntilAvailable();
+                if (waitNanos == 0) {
+                    for (int i = active.size(); i > 0; i--) {
+                        Destination d = active.pollFirst();
+                        if (d.bucket.tryAcquire()) {
+                            final Deque<Stanza> message = d.pending.peekFirst();
+                            final Stanza stanza = message.pollFirst();
+                            d.sending = !message.isEmpty();
+                            if (!d.sending) d.pending.pollFirst();
+                            d.size--;
+                            if (!d.pending.isEmpty()) active.addLast(d);
+                            globalBucket.tryAcquire();
+                            size--;
+                            notFull.signal();
+                            return stanza;
+                        }
+                        active.addLast(d);
+                        waitNanos = Math.min(waitNanos == 0 ? Long.MAX_VALUE : waitNanos, d.bucket.nanosUntilAvailable());
+                    }
+                }
+            }
+            if (waitNanos == Long.MAX_VALUE) {
+                notEmpty.await();
+            } else {
+                notEmpty.awaitNanos(Math.max(waitNanos, 1));
+            }
+        }
+    }
+
+    /**
+     * Drop the oldest message of the destination with the largest backlog - the message being sent is skipped,
+     * so a split message never goes out with a gap.  Must hold the lock.
+     *
+     * @return false if there is no message that can be dropped
+     */
+    private boolean dropOldest() {
+        Destination largest = null;
+        for (Destination d : active) {
+            if (d.hasDroppable() && (largest == null || d.size > largest.size)) largest = d;
+        }
+        if (largest == null) return false;
+        final Deque<Stanza> sending = largest.sending ? largest.pending.pollFirst() : null;
+        final Deque<Stanza> dropped = largest.pending.pollFirst();
+        if (sending != null) largest.pending.addFirst(sending);
+        if (largest.pending.isEmpty()) active.remove(largest);
+        largest.size -= dropped.size();
+        size -= dropped.size();
+        logger.warn("Outbound queue {} full - dropped message to {}", name, dropped.peekFirst().getTo());
+        return true;
+    }
+
+    private void purgeIdleDestinations() {
+        Iterator<Destination> it = destinations.values().iterator();
+        while (it.hasNext()) {
+            Destination d = it.next();
+            if (d.pending.isEmpty() && d.bucket.isFull()) it.remove();
+        }
+    }
+}
@@ -2,16 +2,155 @@ package com.labs2160.slacker.plugin.chat.xmpp;
 
 import com.labs2160.slacker.api.response.SlackerOutput;
 import com.labs2160.slacker.api.response.TextOutput;
-import org.apache.commons.lang3.StringEscapeUtils;
 import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smackx.xhtmlim.packet.XHTMLExtension;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 public final class OutputUtil {
 
+    private final static String HTML_START = "<html xmlns='http://jabber.org/protocol/xhtml-im'><body xmlns='http://www.w3.org/1999/xhtml'><p>";
+
+    private final static String HTML_END = "</p></body></html>";
+
+    /** only texts up to this length are cached - large outputs are rarely repeated */
+    private final static int MAX_CACHED_TEXT_LENGTH = 2048;
+
+    private final static int MAX_CACHED_MESSAGES = 256;
+
+    /** builders larger than this are not kept for reuse */
+    private final static int MAX_REUSED_BUILDER_CAPACITY = 64 * 1024;
+
+    private final static ThreadLocal<StringBuilder> builders = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    /** rendered messages for texts that are sent over and over (error messages, static responses) */
+    private final static Map<String, Message> messageCache = Collections.synchronizedMap(
+            new LinkedHashMap<String, Message>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Message> eldest) {
+                    return size() > MAX_CACHED_MESSAGES;
+                }
+            });
+
+    private OutputUtil() { }
+
     public static String plainTextToJabberHtml(String plainText) {
-        String cleaned = StringEscapeUtils.escapeHtml4(plainText).replaceAll("\n", "<br/>");
-        return "<html xmlns='http://jabber.org/protocol/xhtml-im'><body xmlns='http://www.w3.org/1999/xhtml'><p>"
-                + cleaned + "</p></body></html>";
+        StringBuilder sb = builders.get();
+        sb.setLength(0);
+        sb.append(HTML_START);
+        appendEscaped(sb, plainText);
+        sb.append(HTML_END);
+        final String html = sb.toString();
+        if (sb.capacity() > MAX_REUSED_BUILDER_CAPACITY) {
+            builders.remove();
+        }
+        return html;
+    }
+
+    /**
+     * Escape XML special characters and turn line breaks into &lt;br/&gt; in a single pass.
+     */
+    static void appendEscaped(StringBuilder sb, String text) {
+        sb.ensureCapacity(sb.length() + text.length() + 16);
+        final int len = text.length();
+        for (int i = 0; i < len; i++) {
+            final char c = text.charAt(i);
+            switch (c) {
+                case '&': sb.append("&amp;"); break;
+                case '<': sb.append("&lt;"); break;
+                case '>': sb.append("&gt;"); break;
+                case '"': sb.append("&quot;"); break;
+                case '\'': sb.append("&#39;"); break;
+                case '\n': sb.append("<br/>"); break;
+                case '\r':
+                    if (i + 1 < len && text.charAt(i + 1) == '\n') i++;
+                    sb.append("<br/>");
+                    break;
+                default: sb.append(c);
+            }
+        }
+    }
+
+    /**
+     * Create the response message (plain text body plus XHTML-IM) for the output of an action.
+     * Messages for short texts are cached, so the returned message must not be modified.
+     */
+    public static Message createResponseMessage(SlackerOutput output) {
+        if (output instanceof TextOutput) {
+            return createTextMessage(((TextOutput) output).getMessage());
+        }
+        return createTextMessage("Error - response type " + output.getClass().getSimpleName() + " not yet supported");
+    }
+
+    /**
+     * Create a message with a plain text body plus XHTML-IM.
+     * Messages for short texts are cached, so the returned message must not be modified.
+     */
+    public static Message createTextMessage(String text) {
+        if (text == null || text.length() > MAX_CACHED_TEXT_LENGTH) {
+            return renderTextMessage(text);
+        }
+        Message msg = messageCache.get(text);
+        if (msg == null) {
+            msg = renderTextMessage(text);
+            messageCache.put(text, msg);
+        }
+        return msg;
     }
 
+    /**
+     * Split the text into chunks of at most <code>maxLength</code> characters, on line boundaries
+     * where possible. Lines longer than that are cut. Empty chunks are left out.
+     *
+     * @param maxLength 0 or less to never split
+     */
+    public static List<String> split(String text, int maxLength) {
+        if (text == null || maxLength <= 0 || text.length() <= maxLength) {
+            return Collections.singletonList(text);
+        }
+        final List<String> chunks = new ArrayList<>();
+        final int len = text.length();
+        int start = 0;
+        while (len - start > maxLength) {
+            int end = text.lastIndexOf('\n', start + maxLength);
+            int next;
+            if (end > start) {
+                next = end + 1;
+            } else {
+                end = start + maxLength;
+                if (Character.isHighSurrogate(text.charAt(end - 1))) end--;
+                next = end;
+            }
+            addChunk(chunks, text, start, end);
+            start = next;
+        }
+        addChunk(chunks, text, start, len);
+        return chunks;
+    }
+
+    private static void addChunk(List<String> chunks, String text, int start, int end) {
+        if (end > start && text.charAt(end - 1) == '\n') end--;
+        if (end > start && text.charAt(end - 1) == '\r') end--;
+        if (end > start) chunks.add(text.substring(start, end));
+    }
+
+    private static Message renderTextMessage(String text) {
+        final Message msg = new Message();
+        msg.setBody(text);
+        if (text != null) {
+            XHTMLExtension xhtmlExtension = new XHTMLExtension();
+            xhtmlExtension.addBody(plainTextToJabberHtml(text));
+            msg.addExtension(xhtmlExtension);
+        }
+        return msg;
+    }
 }
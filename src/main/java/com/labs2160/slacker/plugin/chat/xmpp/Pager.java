@@ -0,0 +1,100 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sends long responses a page at a time: the first page is answered right away and the rest is kept
+ * for a while, to be fetched page by page with a "more" request from the same room or chat.
+ */
+public class Pager {
+
+    public final static long DEFAULT_TTL = 5 * 60 * 1000;
+
+    /** conversations whose remaining pages are kept at most */
+    private final static int MAX_CONVERSATIONS = 1000;
+
+    private static class Remainder {
+        final Deque<String> pages;
+        final int total;
+        long expires;
+
+        Remainder(List<String> pages) {
+            this.pages = new ArrayDeque<>(pages);
+            this.total = pages.size();
+        }
+    }
+
+    private final int pageLength;
+
+    private final long ttlMillis;
+
+    private final String moreRequest;
+
+    private final Map<String, Remainder> remainders = new LinkedHashMap<String, Remainder>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Remainder> eldest) {
+            return size() > MAX_CONVERSATIONS;
+        }
+    };
+
+    /**
+     * @param pageLength characters per page (0 to send responses whole)
+     * @param ttlMillis how long the remaining pages are kept
+     * @param moreRequest what to type for the next page - shown at the end of each page
+     */
+    public Pager(int pageLength, long ttlMillis, String moreRequest) {
+        this.pageLength = pageLength;
+        this.ttlMillis = ttlMillis;
+        this.moreRequest = moreRequest;
+    }
+
+    public boolean isEnabled() {
+        return pageLength > 0;
+    }
+
+    /**
+     * @param conversation room or person the response goes to
+     * @return the text if it fits on a page, otherwise its first page; the rest replaces any earlier remainder
+     */
+    public String firstPage(String conversation, String text) {
+        if (pageLength <= 0 || text == null || text.length() <= pageLength) {
+            return text;
+        }
+        final Remainder remainder = new Remainder(OutputUtil.split(text, pageLength));
+        synchronized (remainders) {
+            remainders.put(conversation, remainder);
+            return take(conversation, remainder);
+        }
+    }
+
+    /**
+     * @return the next page for the conversation, null if there is none (or it has expired)
+     */
+    public String nextPage(String conversation) {
+        if (pageLength <= 0) return null;
+        synchronized (remainders) {
+            final Remainder remainder = remainders.get(conversation);
+            if (remainder == null) return null;
+            if (remainder.expires - System.currentTimeMillis() <= 0) {
+                remainders.remove(conversation);
+                return null;
+            }
+            return take(conversation, remainder);
+        }
+    }
+
+    private String take(String conversation, Remainder remainder) {
+        final String page = remainder.pages.poll();
+        if (remainder.pages.isEmpty()) {
+            remainders.remove(conversation);
+            return page;
+        }
+        remainder.expires = System.currentTimeMillis() + ttlMillis;
+        final int number = remainder.total - remainder.pages.size();
+        return page + "\n[page " + number + " of " + remainder.total + " - type \"" + moreRequest + "\" for the next page]";
+    }
+}
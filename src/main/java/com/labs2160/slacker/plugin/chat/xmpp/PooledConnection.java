@@ -0,0 +1,307 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import com.labs2160.slacker.plugin.chat.xmpp.metrics.ResourceMetrics;
+import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.SmackException.NotConnectedException;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.XMPPException;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.tcp.XMPPTCPConnection;
+import org.jivesoftware.smack.tcp.XMPPTCPConnectionConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * One authenticated connection of an XMPPResource with everything that belongs to it:
+ * its send queue, reconnect handling, keepalive and the buffer of messages that could not be sent.
+ */
+class PooledConnection {
+
+    private final static Logger logger = LoggerFactory.getLogger(PooledConnection.class);
+
+    /** time given to the send queue to flush pending messages at shutdown */
+    private final static long SHUTDOWN_DRAIN_MILLIS = 2000;
+
+    private final String name;
+
+    private final boolean primary;
+
+    /** zlib stream compression requested - used only if the server offers it */
+    private final boolean compression;
+
+    private final XMPPTCPConnection conn;
+
+    /** all outbound messages of this connection go through this queue */
+    private final OutboundQueue sendQueue;
+
+    private final ReconnectManager reconnectManager;
+
+    private final KeepAliveService keepAlive;
+
+    private final ResourceMetrics metrics;
+
+    /**
+     * messages that could not be sent while disconnected - replayed after reconnecting,
+     * room messages once the room has been joined again
+     */
+    private final Deque<Stanza> unsent = new ArrayDeque<>();
+
+    private final int unsentBufferSize;
+
+    /**
+     * @param primary only the primary connection announces itself with a non-negative presence priority,
+     *                so that messages sent to the bare JID reach the bot once, not once per connection
+     * @param poolSize the overall send rate is split between the connections
+     */
+    PooledConnection(XMPPTCPConnectionConfiguration config, boolean primary, int poolSize,
+                     Properties configuration, ResourceMetrics metrics) {
+        this.name = config.getUsername() + "/" + config.getResource();
+        this.primary = primary;
+        this.compression = config.isCompressionEnabled();
+        this.metrics = metrics;
+        this.conn = new XMPPTCPConnection(config);
+        // acknowledgements only, if the server offers them: Smack 4.1.0-rc2 forgets the stream id when the connection
+        // drops, so a dropped connection always logs in again and resends the unacknowledged stanzas
+        conn.setUseStreamManagement(Boolean.parseBoolean(configuration.getProperty("streamManagement", "false")));
+        conn.setUseStreamManagementResumption(false);
+
+        sendQueue = new OutboundQueue("xmpp-sender-" + name,
+                new OutboundQueue.StanzaSender() {
+                    @Override
+                    public boolean send(Stanza stanza) {
+                        return deliver(stanza);
+                    }
+                },
+                Integer.parseInt(configuration.getProperty("sendQueueCapacity", "" + XMPPResource.DEFAULT_SEND_QUEUE_CAPACITY)),
+                OutboundQueue.OverflowPolicy.valueOf(configuration.getProperty("sendQueueOverflowPolicy", "BLOCK")));
+        sendQueue.setBlockTimeoutMillis(Long.parseLong(configuration.getProperty("sendQueueBlockTimeout", "5000")));
+        sendQueue.setGlobalRateLimit(Double.parseDouble(configuration.getProperty("sendRate", "10")) / poolSize,
+                Math.max(Integer.parseInt(configuration.getProperty("sendBurst", "20")) / poolSize, 1));
+        sendQueue.setDestinationRateLimit(Double.parseDouble(configuration.getProperty("sendRatePerDestination", "2")),
+                Integer.parseInt(configuration.getProperty("sendBurstPerDestination", "5")));
+
+        unsentBufferSize = Integer.parseInt(configuration.getProperty("unsentBufferSize", "" + XMPPResource.DEFAULT_UNSENT_BUFFER_SIZE));
+        reconnectManager = new ReconnectManager("xmpp-reconnect-" + name, conn,
+                new ReconnectManager.Reconnector() {
+                    @Override
+                    public void reconnect() throws Exception {
+                        // connect() logs in again if the connection had been logged in
+                        if (!conn.isConnected()) conn.connect();
+                        if (!conn.isAuthenticated()) {
+                            authenticate();
+                        } else {
+                            announcePresence();
+                        }
+                    }
+                },
+                Long.parseLong(configuration.getProperty("reconnectInitialDelay", "1000")),
+                Long.parseLong(configuration.getProperty("reconnectMaxDelay", "60000")));
+        reconnectManager.addListener(new ReconnectManager.Listener() {
+            @Override
+            public void reconnected(XMPPConnection connection) {
+                PooledConnection.this.metrics.reconnected();
+                keepAlive.reconnected();
+                replayUnsent();
+            }
+        });
+        conn.addConnectionListener(reconnectManager);
+
+        keepAlive = new KeepAliveService(conn,
+                KeepAliveService.Mode.valueOf(configuration.getProperty("keepAliveMode", "PING")),
+                Long.parseLong(configuration.getProperty("keepAliveInterval", "60000")),
+                Long.parseLong(configuration.getProperty("keepAliveTimeout", "10000")),
+                Integer.parseInt(configuration.getProperty("keepAliveMaxMissed", "3")),
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        reconnect();
+                    }
+                });
+        keepAlive.setMetrics(metrics);
+    }
+
+    void login() throws SmackException, IOException, XMPPException {
+        sendQueue.start();
+        connect(false);
+        authenticate();
+        keepAlive.start();
+    }
+
+    private void authenticate() throws SmackException, IOException, XMPPException {
+        conn.login();
+        if (compression && !conn.isUsingCompression()) {
+            logger.info("Server does not offer zlib compression - {} is not compressed", name);
+        }
+        announcePresence();
+    }
+
+    /**
+     * Smack sends the presence of the primary connection; the others announce themselves with a negative priority.
+     */
+    private void announcePresence() throws SmackException.NotConnectedException {
+        if (!primary) {
+            final Presence presence = new Presence(Presence.Type.available);
+            presence.setPriority(-1);
+            conn.sendPacket(presence);
+        }
+    }
+
+    void shutdown() {
+        logger.debug("Disconnecting {}", name);
+        keepAlive.shutdown();
+        reconnectManager.shutdown();
+        sendQueue.shutdown(SHUTDOWN_DRAIN_MILLIS);
+        conn.disconnect();
+    }
+
+    /**
+     * @return true if connected and the server is answering keepalive pings
+     */
+    boolean isActive() {
+        return conn.isConnected() && keepAlive.isAlive();
+    }
+
+    long getLastRoundTripMillis() {
+        return keepAlive.getLastRoundTripMillis();
+    }
+
+    XMPPTCPConnection getConnection() {
+        return conn;
+    }
+
+    int getPendingCount() {
+        return sendQueue.getPendingCount();
+    }
+
+    void addReconnectListener(ReconnectManager.Listener listener) {
+        reconnectManager.addListener(listener);
+    }
+
+    void removeReconnectListener(ReconnectManager.Listener listener) {
+        reconnectManager.removeListener(listener);
+    }
+
+    /**
+     * Drop the connection (e.g. when it is no longer responsive) and reconnect in the background.
+     */
+    void reconnect() {
+        if (conn.isConnected()) {
+            conn.instantShutdown();
+        }
+        reconnectManager.reconnect();
+    }
+
+    /**
+     * @param mayBlock false to drop the stanza rather than wait for room in the send queue
+     * @return false if the stanza was dropped, e.g. after shutdown
+     */
+    boolean offer(Stanza stanza, boolean mayBlock) {
+        sendQueue.start();
+        return sendQueue.offer(stanza.getTo(), stanza, mayBlock);
+    }
+
+    /**
+     * Queue the chunks of a split message, all to the same destination, as one message.
+     *
+     * @see #offer(Stanza, boolean)
+     */
+    boolean offer(List<? extends Stanza> chunks, boolean mayBlock) {
+        sendQueue.start();
+        return sendQueue.offer(chunks.get(0).getTo(), chunks, mayBlock);
+    }
+
+    /**
+     * Called by the sender thread of the send queue.
+     * Messages that cannot be sent because the connection is down are kept and replayed once reconnected.
+     */
+    private boolean deliver(Stanza stanza) {
+        final long start = System.nanoTime();
+        try {
+            conn.sendPacket(stanza);
+            metrics.sent(start);
+            return true;
+        } catch (NotConnectedException e) {
+            metrics.sendFailed();
+            logger.warn("Cannot send message to {} - {}", stanza.getTo(), e.getMessage());
+            bufferUnsent(stanza);
+            reconnectManager.reconnect();
+            return false;
+        }
+    }
+
+    private void bufferUnsent(Stanza stanza) {
+        synchronized (unsent) {
+            if (unsent.size() >= unsentBufferSize) {
+                final Stanza dropped = unsent.pollFirst();
+                if (dropped != null) {
+                    metrics.unsentDropped();
+                    logger.error("Unsent message buffer full - dropped message to {}", dropped.getTo());
+                }
+            }
+            if (unsentBufferSize > 0) unsent.addLast(stanza);
+        }
+    }
+
+    /**
+     * Replay the messages to people. Room messages stay buffered until the room has been joined again
+     * (see {@link #replayUnsent(String)}) - the server does not take messages from non-occupants.
+     */
+    private void replayUnsent() {
+        replay(null);
+    }
+
+    /**
+     * Replay the messages to the room, now that it has been joined again.
+     */
+    void replayUnsent(String roomJid) {
+        replay(roomJid);
+    }
+
+    /**
+     * @param roomJid null for the messages to people
+     */
+    private void replay(String roomJid) {
+        synchronized (unsent) {
+            int replayed = 0;
+            final Iterator<Stanza> it = unsent.iterator();
+            while (it.hasNext()) {
+                final Stanza stanza = it.next();
+                final boolean toRoom = stanza instanceof Message && ((Message) stanza).getType() == Message.Type.groupchat;
+                if (roomJid == null ? !toRoom : toRoom && roomJid.equals(stanza.getTo())) {
+                    it.remove();
+                    sendQueue.offer(stanza.getTo(), stanza);
+                    replayed++;
+                }
+            }
+            if (replayed > 0) logger.info("Replayed {} unsent messages to {}", replayed, roomJid == null ? "people" : roomJid);
+        }
+    }
+
+    private boolean connect(boolean quietly) {
+        if (! conn.isConnected()) {
+            try {
+                logger.debug("Connecting {} to server {}:{}", name, conn.getHost(), conn.getPort());
+                conn.connect();
+                metrics.connected();
+            } catch (SmackException | IOException | XMPPException e) {
+                metrics.connectFailed();
+                if (quietly) {
+                    logger.warn("Could not connect to server; " + e.getMessage(), e);
+                    return false; // connect failed, don't throw Exception
+                } else {
+                    throw new IllegalStateException("Cannot connect to server; " + e.getMessage(), e);
+                }
+            }
+        }
+        return true;
+    }
+}
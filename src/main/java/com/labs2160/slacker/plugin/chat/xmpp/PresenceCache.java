@@ -0,0 +1,70 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import org.jivesoftware.smack.PacketListener;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jxmpp.util.XmppStringUtils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Latest presence of a bounded number of people, used instead of Smack's roster, which keeps the presence of
+ * every contact and room occupant it hears of for as long as the connection lasts.
+ * Presences from rooms are left to the rooms; the people least recently seen or looked up are dropped first.
+ */
+class PresenceCache implements PacketListener {
+
+    private final String mucDomain;
+
+    private final Map<String, Presence> presences;
+
+    /**
+     * @param maxSize people whose presence is kept at most (0 to keep none)
+     */
+    PresenceCache(final int maxSize, String mucDomain) {
+        this.mucDomain = mucDomain;
+        this.presences = new LinkedHashMap<String, Presence>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Presence> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    @Override
+    public void processPacket(Stanza stanza) {
+        if (!(stanza instanceof Presence) || stanza.getFrom() == null) return;
+        final Presence presence = (Presence) stanza;
+        final String from = stanza.getFrom();
+        if (mucDomain.equalsIgnoreCase(XmppStringUtils.parseDomain(from))) return;
+        final String person = XmppStringUtils.parseBareJid(from);
+        synchronized (presences) {
+            switch (presence.getType()) {
+                case available:
+                    presences.put(person, presence);
+                    break;
+                case unavailable:
+                    presences.remove(person);
+                    break;
+                default: // subscription requests and errors
+                    break;
+            }
+        }
+    }
+
+    /**
+     * @return the latest presence of the person, null if unknown or unavailable
+     */
+    Presence get(String jid) {
+        synchronized (presences) {
+            return presences.get(XmppStringUtils.parseBareJid(jid));
+        }
+    }
+
+    int size() {
+        synchronized (presences) {
+            return presences.size();
+        }
+    }
+}
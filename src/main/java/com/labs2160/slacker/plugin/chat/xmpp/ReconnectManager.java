@@ -0,0 +1,140 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import org.jivesoftware.smack.AbstractConnectionListener;
+import org.jivesoftware.smack.XMPPConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Re-establishes a dropped connection in the background, retrying with exponential backoff.
+ * Delays are randomized ("full jitter") so that a fleet of bots does not reconnect in lockstep
+ * after a server outage.
+ */
+public class ReconnectManager extends AbstractConnectionListener {
+
+    private final static Logger logger = LoggerFactory.getLogger(ReconnectManager.class);
+
+    /** Connects and authenticates; throws if the attempt failed */
+    public interface Reconnector {
+        void reconnect() throws Exception;
+    }
+
+    /** Notified (on the reconnect thread) after the connection has been re-established */
+    public interface Listener {
+        void reconnected(XMPPConnection connection);
+    }
+
+    private final ScheduledExecutorService scheduler;
+
+    private final XMPPConnection connection;
+
+    private final Reconnector reconnector;
+
+    private final long initialDelayMillis;
+
+    private final long maxDelayMillis;
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /** true while a reconnect attempt is scheduled or running */
+    private boolean reconnecting;
+
+    private int attempts;
+
+    private volatile boolean shutdown;
+
+    public ReconnectManager(String name, XMPPConnection connection, Reconnector reconnector,
+                            long initialDelayMillis, long maxDelayMillis) {
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory(name));
+        this.connection = connection;
+        this.reconnector = reconnector;
+        this.initialDelayMillis = Math.max(initialDelayMillis, 1);
+        this.maxDelayMillis = Math.max(maxDelayMillis, this.initialDelayMillis);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void connectionClosedOnError(Exception e) {
+        logger.warn("Connection closed on error - {}", e.getMessage());
+        reconnect();
+    }
+
+    /**
+     * Schedule a reconnect, unless one is already in progress.
+     */
+    public synchronized void reconnect() {
+        if (reconnecting || shutdown) return;
+        reconnecting = true;
+        attempts = 0;
+        schedule();
+    }
+
+    public synchronized boolean isReconnecting() {
+        return reconnecting;
+    }
+
+    public void shutdown() {
+        shutdown = true;
+        scheduler.shutdownNow();
+    }
+
+    private void schedule() {
+        long delay = nextDelayMillis(attempts);
+        logger.info("Reconnecting in {} ms (attempt {})", delay, attempts + 1);
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                attempt();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void attempt() {
+        if (shutdown) return;
+        try {
+            reconnector.reconnect();
+        } catch (Exception e) {
+            logger.warn("Reconnect attempt {} failed - {}", attempts + 1, e.getMessage());
+            synchronized (this) {
+                attempts++;
+                schedule();
+            }
+            return;
+        }
+
+        logger.info("Reconnected after {} attempt(s)", attempts + 1);
+        synchronized (this) {
+            reconnecting = false;
+        }
+        for (Listener listener : listeners) {
+            try {
+                listener.reconnected(connection);
+            } catch (RuntimeException e) {
+                logger.error("Error while notifying reconnect listener", e);
+            }
+        }
+    }
+
+    /**
+     * Random delay between zero and initialDelay * 2^attempt (capped at maxDelay).
+     */
+    long nextDelayMillis(int attempt) {
+        long ceiling = initialDelayMillis << Math.min(attempt, 30);
+        if (ceiling <= 0 || ceiling > maxDelayMillis) ceiling = maxDelayMillis;
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+}
@@ -0,0 +1,154 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * Recognizes messages addressed to the bot and splits them into request tokens.
+ * Trigger keywords (e.g. "@spidey" plus any aliases) are kept in a small trie, so a message
+ * is accepted or rejected by looking at its first few characters only.
+ * Matching is case-insensitive and a trigger must be followed by whitespace, punctuation or the end of the message.
+ * Tokenizing splits on whitespace without regular expressions or intermediate arrays.
+ */
+public class RequestMatcher {
+
+    private final static String [] NO_TOKENS = new String[0];
+
+    private static class Node {
+        char [] keys = new char[0];
+        Node [] children = new Node[0];
+        boolean terminal;
+
+        Node child(char c) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) return children[i];
+            }
+            return null;
+        }
+
+        Node addChild(char c) {
+            Node child = child(c);
+            if (child == null) {
+                child = new Node();
+                keys = Arrays.copyOf(keys, keys.length + 1);
+                children = Arrays.copyOf(children, children.length + 1);
+                keys[keys.length - 1] = c;
+                children[children.length - 1] = child;
+            }
+            return child;
+        }
+    }
+
+    private final Node root = new Node();
+
+    public RequestMatcher(Collection<String> triggers) {
+        for (String trigger : triggers) {
+            final String t = trigger.trim();
+            if (t.isEmpty()) continue;
+            Node node = root;
+            for (int i = 0; i < t.length(); i++) {
+                node = node.addChild(Character.toLowerCase(t.charAt(i)));
+            }
+            node.terminal = true;
+        }
+    }
+
+    /**
+     * @return true if the message starts with one of the trigger keywords
+     */
+    public boolean isAddressed(String body) {
+        return body != null && matchTrigger(body) > 0;
+    }
+
+    /**
+     * Split the message into tokens, leaving out the trigger keyword if the message starts with one.
+     */
+    public String [] tokenize(String body) {
+        if (body == null) return NO_TOKENS;
+        int start = matchTrigger(body);
+        if (start > 0 && start < body.length() && (body.charAt(start) == ':' || body.charAt(start) == ',')) {
+            start++; // "@bot: do something"
+        }
+        return split(body, Math.max(start, 0));
+    }
+
+    /**
+     * @return the tokens in lower case separated by single spaces - identifies requests that get the same answer
+     */
+    public static String normalize(String [] tokens) {
+        final StringBuilder sb = new StringBuilder();
+        for (String token : tokens) {
+            if (token == null || token.length() == 0) continue;
+            if (sb.length() > 0) sb.append(' ');
+            sb.append(token.toLowerCase(Locale.ROOT));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the tokens separated by single spaces, only the command (the first token) in lower case -
+     * arguments may be case sensitive, so <code>deploy Foo</code> and <code>deploy foo</code> differ
+     */
+    public static String exact(String [] tokens) {
+        final StringBuilder sb = new StringBuilder();
+        for (String token : tokens) {
+            if (token == null || token.length() == 0) continue;
+            if (sb.length() > 0) {
+                sb.append(' ').append(token);
+            } else {
+                sb.append(token.toLowerCase(Locale.ROOT));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return length of the longest trigger at the start of the body (after leading whitespace), or -1
+     */
+    int matchTrigger(String body) {
+        final int len = body.length();
+        int i = 0;
+        while (i < len && Character.isWhitespace(body.charAt(i))) i++;
+
+        int matched = -1;
+        Node node = root;
+        while (i < len) {
+            node = node.child(Character.toLowerCase(body.charAt(i)));
+            if (node == null) break;
+            i++;
+            if (node.terminal && (i == len || !Character.isLetterOrDigit(body.charAt(i)))) {
+                matched = i;
+            }
+        }
+        return matched;
+    }
+
+    static String [] split(String s, int from) {
+        final int len = s.length();
+        int count = 0;
+        boolean inToken = false;
+        for (int i = from; i < len; i++) {
+            boolean ws = Character.isWhitespace(s.charAt(i));
+            if (!ws && !inToken) count++;
+            inToken = !ws;
+        }
+        if (count == 0) return NO_TOKENS;
+
+        final String [] tokens = new String[count];
+        int t = 0;
+        int tokenStart = -1;
+        for (int i = from; i <= len; i++) {
+            boolean ws = i == len || Character.isWhitespace(s.charAt(i));
+            if (ws) {
+                if (tokenStart >= 0) {
+                    tokens[t++] = s.substring(tokenStart, i);
+                    tokenStart = -1;
+                }
+            } else if (tokenStart < 0) {
+                tokenStart = i;
+            }
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,98 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import org.jivesoftware.smack.packet.Message;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Responses to commands whose output can be reused for a while (e.g. "status", "oncall"), so that
+ * the same request from several people does not go to the request handler each time.
+ * Only commands on the allowlist are cached, each for its own TTL; the least recently used
+ * responses are dropped when the cache is full.
+ */
+public class ResponseCache {
+
+    public final static long DEFAULT_TTL = 60000;
+
+    public final static int DEFAULT_SIZE = 256;
+
+    private static class Cached {
+        final Message response;
+        final long expires;
+
+        Cached(Message response, long expires) {
+            this.response = response;
+            this.expires = expires;
+        }
+    }
+
+    /** TTL by command */
+    private final CommandTable commands;
+
+    private final Map<String, Cached> responses;
+
+    /**
+     * @param commands comma-separated commands with an optional TTL in ms,
+     *                 e.g. <code>status:30000, oncall, build status:5000</code>; empty to disable the cache
+     * @param defaultTtlMillis TTL of commands without their own
+     * @param size responses kept at most
+     */
+    public ResponseCache(String commands, long defaultTtlMillis, final int size) {
+        this.commands = new CommandTable(commands, defaultTtlMillis);
+        this.responses = new LinkedHashMap<String, Cached>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+                return size() > size;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return !commands.isEmpty();
+    }
+
+    /**
+     * @return the cached response to the request, null if there is none or it has expired
+     */
+    public Message get(String [] tokens) {
+        if (commands.isEmpty()) return null;
+        final String key = RequestMatcher.normalize(tokens);
+        synchronized (responses) {
+            final Cached cached = responses.get(key);
+            if (cached == null) return null;
+            if (cached.expires - System.currentTimeMillis() <= 0) {
+                responses.remove(key);
+                return null;
+            }
+            return cached.response;
+        }
+    }
+
+    /**
+     * Keep the response if the request is for a command on the allowlist.
+     * The response is handed out to later requests, so it must not be modified after this.
+     */
+    public void put(String [] tokens, Message response) {
+        if (commands.isEmpty()) return;
+        final String key = RequestMatcher.normalize(tokens);
+        final long ttl = ttlOf(key);
+        if (ttl <= 0) return;
+        synchronized (responses) {
+            responses.put(key, new Cached(response, System.currentTimeMillis() + ttl));
+        }
+    }
+
+    public int size() {
+        synchronized (responses) {
+            return responses.size();
+        }
+    }
+
+    /**
+     * @return TTL of the longest command on the allowlist that the request starts with, 0 if none
+     */
+    long ttlOf(String key) {
+        return commands.valueOf(key, 0);
+    }
+}
@@ -0,0 +1,117 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.XMPPException;
+import org.jivesoftware.smackx.muc.DiscussionHistory;
+import org.jivesoftware.smackx.muc.MultiUserChat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Joins rooms in parallel, with a bounded number of joins in flight.
+ * Joins never request room history - replayed messages would be processed as new requests.
+ * Each join runs on a pool thread, or on its own thread of a thread-per-task executor (e.g. virtual threads).
+ */
+public class RoomJoiner {
+
+    public final static int DEFAULT_CONCURRENCY = 8;
+
+    public final static long DEFAULT_TIMEOUT = 10000;
+
+    private final static Logger logger = LoggerFactory.getLogger(RoomJoiner.class);
+
+    /** Joins a single room; throws if the room could not be joined */
+    public interface Join {
+        void join(String roomId) throws Exception;
+    }
+
+    private final ExecutorService executor;
+
+    /** bounds the joins in flight on a thread-per-task executor - null when the pool does */
+    private final Semaphore inFlight;
+
+    public RoomJoiner(String name, int concurrency) {
+        final int threads = Math.max(concurrency, 1);
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory(name));
+        pool.allowCoreThreadTimeOut(true);
+        executor = pool;
+        inFlight = null;
+    }
+
+    /**
+     * @param perTask starts a thread for each join (see {@link VirtualThreads#newThreadPerTaskExecutor(String)})
+     * @param concurrency joins in flight at most; the others wait on their threads
+     */
+    public RoomJoiner(ExecutorService perTask, int concurrency) {
+        executor = perTask;
+        inFlight = new Semaphore(Math.max(concurrency, 1));
+    }
+
+    /**
+     * Join the room without history, waiting at most <code>timeoutMillis</code> for the server to confirm.
+     * If the room is already joined, it is left and joined again (e.g. after reconnecting).
+     */
+    public static void join(MultiUserChat muc, String nickname, long timeoutMillis) throws XMPPException, SmackException {
+        final DiscussionHistory history = new DiscussionHistory();
+        history.setMaxStanzas(0);
+        muc.join(nickname, null, history, timeoutMillis);
+    }
+
+    /**
+     * Join the rooms in the background.
+     *
+     * @return counted down once all joins have finished (successfully or not)
+     */
+    public CountDownLatch joinAll(Collection<String> roomIds, final Join join) {
+        final List<String> pending = new ArrayList<>(roomIds);
+        final CountDownLatch done = new CountDownLatch(1);
+        if (pending.isEmpty()) {
+            done.countDown();
+            return done;
+        }
+        final long start = System.currentTimeMillis();
+        final AtomicInteger remaining = new AtomicInteger(pending.size());
+        final AtomicInteger failed = new AtomicInteger();
+        for (final String roomId : pending) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (inFlight != null) inFlight.acquire();
+                        try {
+                            join.join(roomId);
+                        } finally {
+                            if (inFlight != null) inFlight.release();
+                        }
+                    } catch (Exception e) {
+                        failed.incrementAndGet();
+                        logger.warn("Could not join room \"{}\" - {}", roomId, e.getMessage());
+                    } finally {
+                        if (remaining.decrementAndGet() == 0) {
+                            logger.info("Joined {} of {} rooms in {} ms", pending.size() - failed.get(), pending.size(),
+                                    System.currentTimeMillis() - start);
+                            done.countDown();
+                        }
+                    }
+                }
+            });
+        }
+        return done;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
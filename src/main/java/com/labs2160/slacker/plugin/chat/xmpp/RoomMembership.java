@@ -0,0 +1,136 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import org.jxmpp.util.XmppStringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which rooms a collector stays in: which invitations are accepted, and when a room that
+ * the bot was invited to has been idle long enough to be left. Rooms from the configuration are pinned
+ * and never left. A room that was left is joined again when the bot is invited again.
+ */
+public class RoomMembership {
+
+    private final static Logger logger = LoggerFactory.getLogger(RoomMembership.class);
+
+    /** Leaves an idle room */
+    public interface Evictor {
+        void evict(String roomId);
+    }
+
+    private final String name;
+
+    /** room ids, room JIDs or inviter JIDs ('*' matches anything) - empty to accept all invitations */
+    private final List<Pattern> allowlist = new ArrayList<>();
+
+    private final long idleTimeoutMillis;
+
+    private final Set<String> pinned = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /** room id -> time of the last message in the room (ms) */
+    private final ConcurrentMap<String, Long> lastActivity = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param allowlist comma-separated patterns; empty to accept all invitations
+     * @param idleTimeoutMillis rooms without messages for this long are left (0 to never leave rooms)
+     */
+    public RoomMembership(String name, String allowlist, long idleTimeoutMillis) {
+        this.name = name;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        final StringTokenizer st = new StringTokenizer(allowlist == null ? "" : allowlist, ", ");
+        while (st.hasMoreTokens()) {
+            this.allowlist.add(glob(st.nextToken()));
+        }
+    }
+
+    private static Pattern glob(String pattern) {
+        final StringBuilder regex = new StringBuilder();
+        for (String part : pattern.split("\\*", -1)) {
+            if (regex.length() > 0) regex.append(".*");
+            regex.append(Pattern.quote(part));
+        }
+        return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE);
+    }
+
+    /**
+     * Keep the room joined no matter how idle it is (rooms from the configuration).
+     */
+    public void pin(String roomId) {
+        pinned.add(roomId);
+    }
+
+    /**
+     * Record activity in a room; called for every message and join.
+     */
+    public void touch(String roomId) {
+        if (idleTimeoutMillis > 0 && !pinned.contains(roomId)) {
+            lastActivity.put(roomId, System.currentTimeMillis());
+        }
+    }
+
+    public void forget(String roomId) {
+        lastActivity.remove(roomId);
+    }
+
+    public boolean isInviteAllowed(String roomJid, String inviter) {
+        if (allowlist.isEmpty()) return true;
+        final String roomId = XmppStringUtils.parseLocalpart(roomJid);
+        final String inviterJid = inviter == null ? "" : XmppStringUtils.parseBareJid(inviter);
+        for (Pattern pattern : allowlist) {
+            if (pattern.matcher(roomId).matches() || pattern.matcher(roomJid).matches()
+                    || pattern.matcher(inviterJid).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return rooms without activity since <code>now - idleTimeout</code>, removed from tracking
+     */
+    List<String> takeIdleRooms(long now) {
+        final List<String> idle = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : lastActivity.entrySet()) {
+            if (now - entry.getValue() >= idleTimeoutMillis && lastActivity.remove(entry.getKey(), entry.getValue())) {
+                idle.add(entry.getKey());
+            }
+        }
+        return idle;
+    }
+
+    public synchronized void start(final Evictor evictor) {
+        if (scheduler != null || idleTimeoutMillis <= 0) return;
+        final long period = Math.max(idleTimeoutMillis / 4, 1000);
+        scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory(name));
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                for (String roomId : takeIdleRooms(System.currentTimeMillis())) {
+                    logger.info("Leaving room \"{}\" - idle for more than {} ms", roomId, idleTimeoutMillis);
+                    try {
+                        evictor.evict(roomId);
+                    } catch (RuntimeException e) {
+                        logger.error("Error while leaving room \"{}\"", roomId, e);
+                    }
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Runs identical requests that arrive while one is already being processed only once: the later
+ * ones wait for the pending one and get its result (or its exception).
+ * Nothing is kept once the request is done, so a result is never handed to a request that arrived after it.
+ */
+public class SingleFlight<K, V> {
+
+    /** A request that either runs the work itself or shares the work of an identical pending request */
+    public static class Call<V> {
+
+        private final FutureTask<V> task;
+
+        private final boolean leader;
+
+        private Call(FutureTask<V> task, boolean leader) {
+            this.task = task;
+            this.leader = leader;
+        }
+
+        /**
+         * @return true if the result comes from an identical request that was already pending
+         */
+        public boolean isShared() {
+            return !leader;
+        }
+
+        /**
+         * Run the work (on the calling thread) or wait for the pending request to finish.
+         *
+         * @throws Exception whatever the work threw
+         */
+        public V get() throws Exception {
+            if (leader) task.run();
+            try {
+                return task.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+    }
+
+    private final ConcurrentMap<K, FutureTask<V>> pending = new ConcurrentHashMap<>();
+
+    /**
+     * @param key identifies identical requests
+     * @param work run by the first of the identical requests only
+     */
+    public Call<V> join(final K key, final Callable<V> work) {
+        final Flight<K, V> flight = new Flight<>(key, work, pending);
+        final FutureTask<V> task = new FutureTask<>(flight);
+        flight.task = task;
+        final FutureTask<V> existing = pending.putIfAbsent(key, task);
+        return existing == null ? new Call<>(task, true) : new Call<>(existing, false);
+    }
+
+    public int size() {
+        return pending.size();
+    }
+
+    private static class Flight<K, V> implements Callable<V> {
+
+        private final K key;
+
+        private final Callable<V> work;
+
+        private final ConcurrentMap<K, FutureTask<V>> pending;
+
+        private FutureTask<V> task;
+
+        Flight(K key, Callable<V> work, ConcurrentMap<K, FutureTask<V>> pending) {
+            this.key = key;
+            this.work = work;
+            this.pending = pending;
+        }
+
+        @Override
+        public V call() throws Exception {
+            try {
+                return work.call();
+            } finally {
+                // before the result is set - no request can join once the result is there
+                pending.remove(key, task);
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+
+/**
+ * Runs tasks on a fixed set of single-threaded workers ("stripes").
+ * Tasks submitted with the same key always land on the same stripe, so they run
+ * in submission order, while tasks for different keys run in parallel.
+ * With zero stripes, tasks run on the calling thread.
+ * <p>
+ * Alternatively, each task runs on its own thread of a thread-per-task executor (e.g. virtual threads),
+ * one task per key at a time: tasks for a key that has a task running wait in that key's queue.
+ */
+public class StripedExecutor {
+
+    private final static Logger logger = LoggerFactory.getLogger(StripedExecutor.class);
+
+    private final ExecutorService [] stripes;
+
+    /** runs each task on its own thread - null when running on stripes */
+    private final ExecutorService perTask;
+
+    /** maximum number of pending tasks per key, when running on the thread-per-task executor */
+    private final int queueSize;
+
+    /** tasks waiting for the running task of their key (guarded by itself) */
+    private final Map<String, Queue<Runnable>> pending = new HashMap<>();
+
+    /**
+     * @param name thread name prefix
+     * @param numStripes number of worker threads (0 to run tasks on the caller's thread)
+     * @param queueSize maximum number of pending tasks per stripe
+     */
+    public StripedExecutor(String name, int numStripes, int queueSize) {
+        stripes = new ExecutorService[Math.max(numStripes, 0)];
+        perTask = null;
+        this.queueSize = queueSize;
+        ThreadFactory threadFactory = new NamedThreadFactory(name);
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(queueSize), threadFactory);
+        }
+    }
+
+    /**
+     * @param perTask starts a thread for each task (see {@link VirtualThreads#newThreadPerTaskExecutor(String)})
+     * @param queueSize maximum number of pending tasks per key
+     */
+    public StripedExecutor(ExecutorService perTask, int queueSize) {
+        this.stripes = new ExecutorService[0];
+        this.perTask = perTask;
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * @throws RejectedExecutionException if the stripe (or queue) for the key is full or shut down
+     */
+    public void execute(String key, Runnable task) {
+        if (perTask != null) {
+            executeOwnThread(key, task);
+        } else if (stripes.length == 0) {
+            task.run();
+        } else {
+            stripes[stripeFor(key)].execute(task);
+        }
+    }
+
+    private void executeOwnThread(String key, Runnable task) {
+        synchronized (pending) {
+            final Queue<Runnable> queue = pending.get(key);
+            if (queue != null) { // a task for the key is running
+                if (queue.size() >= queueSize) {
+                    throw new RejectedExecutionException("Too many pending tasks for " + key);
+                }
+                queue.add(task);
+                return;
+            }
+            pending.put(key, new ArrayDeque<Runnable>());
+        }
+        try {
+            perTask.execute(next(key, task));
+        } catch (RejectedExecutionException e) {
+            synchronized (pending) {
+                pending.remove(key);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return runs the task, then starts the next pending task for the key on a thread of its own
+     */
+    private Runnable next(final String key, final Runnable task) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    Runnable next;
+                    synchronized (pending) {
+                        next = pending.get(key).poll();
+                        if (next == null) pending.remove(key);
+                    }
+                    if (next != null) {
+                        try {
+                            perTask.execute(next(key, next));
+                        } catch (RejectedExecutionException e) {
+                            synchronized (pending) {
+                                pending.remove(key);
+                            }
+                            logger.debug("Dropping pending tasks for {} - shut down", key);
+                        }
+                    }
+                }
+            }
+        };
+    }
+
+    public void shutdown() {
+        if (perTask != null) perTask.shutdownNow();
+        for (ExecutorService stripe : stripes) {
+            stripe.shutdownNow();
+        }
+        logger.debug("Shut down {} stripes", stripes.length);
+    }
+
+    /**
+     * @return 0 when each task runs on its own thread
+     */
+    public int getNumStripes() {
+        return stripes.length;
+    }
+
+    private int stripeFor(String key) {
+        int h = key == null ? 0 : key.hashCode();
+        h ^= (h >>> 16);
+        return (h & 0x7fffffff) % stripes.length;
+    }
+}
@@ -0,0 +1,66 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Classic token bucket: holds up to <code>burst</code> tokens and refills at <code>ratePerSecond</code>.
+ * A rate of zero (or less) means unlimited.
+ */
+public class TokenBucket {
+
+    private final double tokensPerNano;
+
+    private final double capacity;
+
+    private double tokens;
+
+    private long lastRefill;
+
+    public TokenBucket(double ratePerSecond, int burst) {
+        this.tokensPerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = Math.max(burst, 1);
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    public boolean isUnlimited() {
+        return tokensPerNano <= 0;
+    }
+
+    /**
+     * @return true if a token was available (and has been taken)
+     */
+    public synchronized boolean tryAcquire() {
+        if (isUnlimited()) return true;
+        refill();
+        if (tokens >= 1) {
+            tokens -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return nanoseconds until the next token is available (0 if one is available now)
+     */
+    public synchronized long nanosUntilAvailable() {
+        if (isUnlimited()) return 0;
+        refill();
+        return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+
+    /**
+     * @return true if the bucket has refilled completely (i.e. it has been idle)
+     */
+    public synchronized boolean isFull() {
+        if (isUnlimited()) return true;
+        refill();
+        return tokens >= capacity;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+    }
+}
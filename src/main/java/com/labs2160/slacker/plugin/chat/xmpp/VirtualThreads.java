@@ -0,0 +1,83 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual threads (Java 21+), looked up by reflection so that the plugin still builds and runs on older JVMs.
+ * Blocking Smack calls and request handlers park a virtual thread instead of holding a platform thread,
+ * so thousands of slow requests or deliveries cost next to no platform threads.
+ */
+public final class VirtualThreads {
+
+    private final static Logger logger = LoggerFactory.getLogger(VirtualThreads.class);
+
+    /** Thread.ofVirtual(), null if not supported */
+    private final static Method OF_VIRTUAL;
+
+    private final static Method BUILDER_NAME;
+
+    private final static Method BUILDER_FACTORY;
+
+    private final static Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+    static {
+        Method ofVirtual = null, name = null, factory = null, newExecutor = null;
+        try {
+            final Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        } catch (ReflectiveOperationException e) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = name;
+        BUILDER_FACTORY = factory;
+        NEW_THREAD_PER_TASK_EXECUTOR = newExecutor;
+    }
+
+    private VirtualThreads() { }
+
+    /**
+     * @return true if the JVM has virtual threads
+     */
+    public static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * @param name thread name prefix - threads are named &lt;name&gt;-&lt;n&gt;
+     * @return an executor that starts a new virtual thread for each task, null if the JVM has no virtual threads
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String name) {
+        if (!isSupported()) return null;
+        try {
+            final Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), name + "-", 1L);
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, BUILDER_FACTORY.invoke(builder));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.warn("Cannot create virtual threads - {}", e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * @param enabled true if virtual threads were asked for
+     * @return the executor of {@link #newThreadPerTaskExecutor(String)}, null if not enabled or supported
+     * (logged, so that the fallback to platform threads is visible)
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String name, boolean enabled) {
+        if (!enabled) return null;
+        final ExecutorService executor = newThreadPerTaskExecutor(name);
+        if (executor == null) {
+            logger.warn("{}: virtual threads need Java 21 or later - using platform threads", name);
+        }
+        return executor;
+    }
+}
@@ -0,0 +1,719 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import com.labs2160.slacker.api.*;
+import com.labs2160.slacker.api.response.SlackerOutput;
+import com.labs2160.slacker.plugin.chat.xmpp.metrics.CollectorMetrics;
+import com.labs2160.slacker.plugin.chat.xmpp.metrics.CollectorMetrics.Stage;
+import com.labs2160.slacker.plugin.chat.xmpp.metrics.MBeans;
+import org.jivesoftware.smack.MessageListener;
+import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.SmackException.NotConnectedException;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.XMPPException;
+import org.jivesoftware.smack.chat.Chat;
+import org.jivesoftware.smack.chat.ChatManager;
+import org.jivesoftware.smack.chat.ChatManagerListener;
+import org.jivesoftware.smack.chat.ChatMessageListener;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.tcp.XMPPTCPConnection;
+import org.jivesoftware.smackx.muc.InvitationListener;
+import org.jivesoftware.smackx.muc.MultiUserChat;
+import org.jivesoftware.smackx.muc.MultiUserChatManager;
+import org.jxmpp.util.XmppStringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.ObjectName;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Collector that listens for requests via messages in rooms (MUC) and one-on-one chats.
+ * Services (HipChat, Slack) are thin profiles on top: a name, the request source and the default replies.
+ * <p>
+ * A request goes through these stages, each timed on its own (see {@link Stage}):
+ * <ol>
+ *     <li>filter - drop messages not addressed to the bot, sent by the bot or delivered twice</li>
+ *     <li>parse - tokenize the request</li>
+ *     <li>admit - turn away requests over the sender, room or in-flight limits</li>
+ *     <li>dispatch - queue the request until a dispatch thread picks it up</li>
+ *     <li>handle - answer from the pager or the cache, or invoke the request handler</li>
+ *     <li>render - create the response message, cache it and cut it into pages</li>
+ *     <li>send - queue the response for sending</li>
+ * </ol>
+ */
+public abstract class XMPPCollector implements RequestCollector, ChatManagerListener, ChatMessageListener,
+        ReconnectManager.Listener, InvitationListener {
+
+    public final static int DEFAULT_DISPATCH_THREADS = 4;
+
+    public final static int DEFAULT_DISPATCH_QUEUE_SIZE = 100;
+
+    private final static Logger logger = LoggerFactory.getLogger(XMPPCollector.class);
+
+    /** Where the responses to a request go: a room or a one-on-one chat */
+    private interface Conversation {
+        /**
+         * @param mayBlock false on the XMPP listener thread - the message is dropped rather than hold up
+         *                 incoming stanzas while the send queue is full
+         */
+        boolean send(Message msg, boolean mayBlock);
+    }
+
+    /** prefix of thread names */
+    private final String name;
+
+    /** source of the requests passed to the request handler */
+    private final String source;
+
+    /** replies used unless configured */
+    private final Properties defaultMessages;
+
+    private XMPPResource xmpp;
+
+    private XMPPTCPConnection conn;
+
+    private final Map<String, MultiUserChat> rooms = Collections.synchronizedMap(new HashMap<String, MultiUserChat>());
+
+    private RequestHandler handler;
+
+    /** number of threads used to process requests (0 to process on the XMPP listener thread; one per request with virtual threads) */
+    private int dispatchThreads = DEFAULT_DISPATCH_THREADS;
+
+    /** maximum number of pending requests per dispatch thread */
+    private int dispatchQueueSize = DEFAULT_DISPATCH_QUEUE_SIZE;
+
+    /** processes requests off the XMPP listener thread, in order per room/participant */
+    private StripedExecutor dispatcher;
+
+    /** rooms joined in parallel */
+    private int joinConcurrency = RoomJoiner.DEFAULT_CONCURRENCY;
+
+    /** how long to wait for the server to confirm a room join (ms) */
+    private long joinTimeout = RoomJoiner.DEFAULT_TIMEOUT;
+
+    private RoomJoiner roomJoiner;
+
+    /** counted down once all rooms have been joined (or failed to) after start */
+    private volatile CountDownLatch startup = new CountDownLatch(1);
+
+    /** join rooms the bot is invited to */
+    private boolean autoAcceptInvitations;
+
+    /** which invitations to accept and when to leave idle rooms */
+    private RoomMembership membership;
+
+    /** requests delivered again after a reconnect or rejoin are not processed twice */
+    private DuplicateFilter duplicates = new DuplicateFilter(DuplicateFilter.DEFAULT_WINDOW, DuplicateFilter.DEFAULT_CAPACITY);
+
+    /** responses to commands that can be answered from the cache for a while - disabled unless configured */
+    private ResponseCache responses = new ResponseCache("", ResponseCache.DEFAULT_TTL, ResponseCache.DEFAULT_SIZE);
+
+    /** identical requests arriving while one is pending share its result */
+    private final SingleFlight<String, SlackerOutput> inFlight = new SingleFlight<>();
+
+    /** commands whose identical requests share the pending request's output - none by default */
+    private CommandTable coalesceCommands = new CommandTable("", 0);
+
+    /** limits per sender and room, and on the requests in flight - off unless configured */
+    private AdmissionControl admission = new AdmissionControl(0, AdmissionControl.DEFAULT_SENDER_BURST,
+            0, AdmissionControl.DEFAULT_ROOM_BURST, 0);
+
+    /** long responses are answered a page at a time - off unless configured */
+    private Pager pager = new Pager(0, Pager.DEFAULT_TTL, "more");
+
+    /** how long to wait for the request handler - forever unless configured */
+    private Deadlines deadlines;
+
+    /** message listener of each room, removed when the room is left */
+    private final Map<String, MessageListener> roomListeners = new ConcurrentHashMap<>();
+
+    private final CollectorMetrics metrics = new CollectorMetrics();
+
+    private ObjectName mbeanName;
+
+    private String msgNoArguments;
+
+    private String msgInvalidRequest;
+
+    private String msgError;
+
+    private String msgFatalError;
+
+    private String msgBusy;
+
+    private String msgTimeout;
+
+    private String msgLateResponse;
+
+    /**
+     * @param name prefix of thread names, e.g. <code>hipchat</code>
+     * @param source source of the requests passed to the request handler
+     * @param defaultMessages replies used unless configured (<code>msgBusy</code>, <code>msgError</code>, etc.)
+     * @param xmpp null until {@link #setComponents(Map, Properties)}
+     * @param handler null until {@link #start(RequestHandler)}; set for testing so that {@link #process(Message)}
+     *                can be called without starting (logging in)
+     */
+    protected XMPPCollector(String name, String source, Properties defaultMessages,
+                            XMPPResource xmpp, RequestHandler handler) {
+        this.name = name;
+        this.source = source;
+        this.defaultMessages = defaultMessages;
+        this.membership = new RoomMembership(name + "-rooms", "", 0);
+        this.deadlines = new Deadlines(name + "-late", 0, "", 0);
+        this.xmpp = xmpp;
+        this.conn = xmpp == null ? null : xmpp.getConnection();
+        this.handler = handler;
+        readMessages(new Properties());
+    }
+
+    @Override
+    public void setComponents(Map<String, Resource> resources, Properties config) {
+        this.xmpp = (XMPPResource) resources.get(config.getProperty("XMPPResourceRef"));
+        this.conn = xmpp.getConnection();
+        membership = new RoomMembership(name + "-rooms", config.getProperty("invitationAllowlist", ""),
+                Long.parseLong(config.getProperty("roomIdleTimeout", "0")));
+        StringTokenizer st = new StringTokenizer(config.getProperty("mucRooms", ""), ", "); // comma-separated
+        while (st.hasMoreTokens()) {
+            addRoom(st.nextToken());
+        }
+        dispatchThreads = Integer.parseInt(config.getProperty("dispatchThreads", "" + DEFAULT_DISPATCH_THREADS));
+        dispatchQueueSize = Integer.parseInt(config.getProperty("dispatchQueueSize", "" + DEFAULT_DISPATCH_QUEUE_SIZE));
+        joinConcurrency = Integer.parseInt(config.getProperty("joinConcurrency", "" + RoomJoiner.DEFAULT_CONCURRENCY));
+        joinTimeout = Long.parseLong(config.getProperty("joinTimeout", "" + RoomJoiner.DEFAULT_TIMEOUT));
+        autoAcceptInvitations = Boolean.parseBoolean(config.getProperty("autoAcceptInvitations", "false"));
+        duplicates = new DuplicateFilter(
+                Long.parseLong(config.getProperty("duplicateWindow", "" + DuplicateFilter.DEFAULT_WINDOW)),
+                Integer.parseInt(config.getProperty("duplicateCapacity", "" + DuplicateFilter.DEFAULT_CAPACITY)));
+        coalesceCommands = new CommandTable(config.getProperty("coalesceCommands", ""), 0);
+        pager = new Pager(Integer.parseInt(config.getProperty("pageLength", "0")),
+                Long.parseLong(config.getProperty("pageTtl", "" + Pager.DEFAULT_TTL)),
+                xmpp.getMucKeyword() + " more");
+        admission = new AdmissionControl(
+                Double.parseDouble(config.getProperty("senderRate", "0")),
+                Integer.parseInt(config.getProperty("senderBurst", "" + AdmissionControl.DEFAULT_SENDER_BURST)),
+                Double.parseDouble(config.getProperty("roomRate", "0")),
+                Integer.parseInt(config.getProperty("roomBurst", "" + AdmissionControl.DEFAULT_ROOM_BURST)),
+                Integer.parseInt(config.getProperty("maxInFlight", "0")));
+        responses = new ResponseCache(config.getProperty("cacheCommands", ""),
+                Long.parseLong(config.getProperty("cacheTtl", "" + ResponseCache.DEFAULT_TTL)),
+                Integer.parseInt(config.getProperty("cacheSize", "" + ResponseCache.DEFAULT_SIZE)));
+        deadlines = new Deadlines(name + "-late",
+                Long.parseLong(config.getProperty("requestTimeout", "0")),
+                config.getProperty("requestTimeouts", ""),
+                Boolean.parseBoolean(config.getProperty("lateResponses", "false"))
+                        ? Long.parseLong(config.getProperty("lateResponseTimeout", "" + Deadlines.DEFAULT_LATE_TIMEOUT)) : 0);
+        readMessages(config);
+    }
+
+    private void readMessages(Properties config) {
+        msgNoArguments = config.getProperty("msgNoArguments", defaultMessages.getProperty("msgNoArguments"));
+        msgInvalidRequest = config.getProperty("msgInvalidRequest", defaultMessages.getProperty("msgInvalidRequest"));
+        msgError = config.getProperty("msgError", defaultMessages.getProperty("msgError"));
+        msgFatalError = config.getProperty("msgFatalError", defaultMessages.getProperty("msgFatalError"));
+        msgBusy = config.getProperty("msgBusy", defaultMessages.getProperty("msgBusy"));
+        msgTimeout = config.getProperty("msgTimeout", defaultMessages.getProperty("msgTimeout"));
+        msgLateResponse = config.getProperty("msgLateResponse", defaultMessages.getProperty("msgLateResponse"));
+    }
+
+    @Override
+    public void start(RequestHandler handler) {
+        this.handler = handler;
+        final ExecutorService requestThreads = VirtualThreads.newThreadPerTaskExecutor(name + "-dispatch",
+                xmpp.isVirtualThreads() && dispatchThreads > 0);
+        this.dispatcher = requestThreads != null ? new StripedExecutor(requestThreads, dispatchQueueSize)
+                : new StripedExecutor(name + "-dispatch", dispatchThreads, dispatchQueueSize);
+        xmpp.login();
+        final ExecutorService joinThreads = VirtualThreads.newThreadPerTaskExecutor(name + "-join", xmpp.isVirtualThreads());
+        roomJoiner = joinThreads != null ? new RoomJoiner(joinThreads, joinConcurrency)
+                : new RoomJoiner(name + "-join", joinConcurrency);
+        mbeanName = MBeans.register(getClass().getSimpleName(), xmpp.getUser(), metrics);
+        for (XMPPTCPConnection connection : xmpp.getConnections()) {
+            ChatManager.getInstanceFor(connection).addChatListener(this);
+            if (autoAcceptInvitations) {
+                MultiUserChatManager.getInstanceFor(connection).addInvitationListener(this);
+            }
+        }
+        membership.start(new RoomMembership.Evictor() {
+            @Override
+            public void evict(String roomId) {
+                leaveRoom(roomId);
+            }
+        });
+        xmpp.addReconnectListener(this);
+        logger.info("{}: connected={}, authenticated={}", getClass().getSimpleName(), conn.isConnected(),
+                conn.isAuthenticated());
+        startup = joinRooms();
+    }
+
+    @Override
+    public void shutdown() {
+        xmpp.removeReconnectListener(this);
+        if (dispatcher != null) dispatcher.shutdown();
+        if (roomJoiner != null) roomJoiner.shutdown();
+        membership.shutdown();
+        deadlines.shutdown();
+        MBeans.unregister(mbeanName);
+        xmpp.shutdown(); // also stops the keepalive
+    }
+
+    public CollectorMetrics getMetrics() {
+        return metrics;
+    }
+
+    public XMPPConnection getConnection() {
+        return conn;
+    }
+
+    @Override
+    public boolean isActive() {
+        return xmpp.isActive();
+    }
+
+    /**
+     * Handler function for ChatManagerListener.
+     */
+    @Override
+    public void chatCreated(Chat chat, boolean createdLocally) {
+        logger.debug("Incoming chat with user {} createdLocally={}", chat.getParticipant(), createdLocally);
+        if (!createdLocally) {
+            chat.addMessageListener(this);
+        }
+    }
+
+    /**
+     * Join all rooms in parallel, in the background.
+     *
+     * @return counted down once all joins have finished
+     */
+    public CountDownLatch joinRooms() {
+        final List<String> roomIds;
+        synchronized (rooms) {
+            roomIds = new ArrayList<>(rooms.keySet());
+        }
+        return roomJoiner.joinAll(roomIds, new RoomJoiner.Join() {
+            @Override
+            public void join(String roomId) throws Exception {
+                joinRoom(roomId);
+            }
+        });
+    }
+
+    /**
+     * @return true once the rooms configured at startup have been joined (or failed to)
+     */
+    public boolean isStartupComplete() {
+        return startup.getCount() == 0;
+    }
+
+    /**
+     * Wait until the rooms configured at startup have been joined (or failed to).
+     *
+     * @return false if the wait timed out
+     */
+    public boolean awaitStartup(long timeout, TimeUnit unit) throws InterruptedException {
+        return startup.await(timeout, unit);
+    }
+
+    /**
+     * Handler function for ReconnectManager.Listener.
+     * The server forgets about our room occupancy when the connection drops, so join the rooms again.
+     */
+    @Override
+    public void reconnected(XMPPConnection connection) {
+        logger.info("{} reconnected, rejoining its rooms", connection.getUser());
+        final List<String> roomIds = new ArrayList<>();
+        synchronized (rooms) {
+            for (String roomId : rooms.keySet()) {
+                if (xmpp.getConnection(roomJid(roomId)) == connection) {
+                    roomIds.add(roomId); // rooms on the other connections are still joined
+                }
+            }
+        }
+        roomJoiner.joinAll(roomIds, new RoomJoiner.Join() {
+            @Override
+            public void join(String roomId) throws Exception {
+                joinRoom(roomId);
+            }
+        });
+    }
+
+    /**
+     * Add a room to join at startup.  Do not add the Conference (MUC) domain.
+     * e.g. 1234_my_room (not 1234_my_room@muc.domain)
+     *
+     * @param roomId
+     */
+    public void addRoom(String roomId) {
+        logger.debug("Room added: {}", roomId);
+        this.rooms.put(roomId, null);
+        membership.pin(roomId);
+    }
+
+    /**
+     * Join the room, or join it again if it had been joined before the connection dropped.
+     */
+    private void joinRoom(final String roomId) throws XMPPException, SmackException {
+        MultiUserChat existing = rooms.get(roomId);
+        if (existing == null) {
+            existing = createRoom(roomId);
+            rooms.put(roomId, existing);
+        }
+        try {
+            // an endpoint using the same resource may have joined the room already
+            if (xmpp.joinRoom(existing, joinTimeout)) metrics.roomJoined(true);
+            membership.touch(roomId);
+        } catch (XMPPException | SmackException e) {
+            metrics.roomJoined(false);
+            throw e;
+        }
+    }
+
+    private MultiUserChat createRoom(final String roomId) {
+        final String roomJid = roomJid(roomId);
+        MultiUserChatManager mucm = MultiUserChatManager.getInstanceFor(xmpp.getConnection(roomJid));
+        final MultiUserChat chat = mucm.getMultiUserChat(roomJid);
+        xmpp.keepRoom(roomJid);
+        final Conversation conversation = new Conversation() {
+            @Override
+            public boolean send(Message msg, boolean mayBlock) {
+                return xmpp.sendMessage(chat, msg, mayBlock);
+            }
+        };
+        final MessageListener listener = new MessageListener() {
+            @Override
+            public void processMessage(final Message message) {
+                membership.touch(roomId);
+                receive(roomId, roomId, message, conversation);
+            }
+        };
+        chat.addMessageListener(listener);
+        roomListeners.put(roomId, listener);
+        return chat;
+    }
+
+    /**
+     * Leave the room and drop everything kept for it. It is joined again when the bot is invited back.
+     */
+    public void leaveRoom(String roomId) {
+        final MultiUserChat chat = rooms.remove(roomId);
+        membership.forget(roomId);
+        if (chat == null) return;
+        final MessageListener listener = roomListeners.remove(roomId);
+        if (listener != null) chat.removeMessageListener(listener);
+        try {
+            xmpp.leaveRoom(chat);
+            metrics.roomLeft();
+            logger.info("Left room: {}", roomId);
+        } catch (NotConnectedException e) {
+            logger.debug("Not connected while leaving room \"{}\" - {}", roomId, e.getMessage());
+        }
+    }
+
+    /**
+     * Handler function for InvitationListener (only registered when autoAcceptInvitations is on).
+     * The invitation may arrive on any connection; the room is joined on the connection it is assigned to.
+     */
+    @Override
+    public void invitationReceived(XMPPConnection connection, MultiUserChat room, String inviter, String reason,
+                                   String password, Message message) {
+        final String roomJid = room.getRoom();
+        final String roomId = XmppStringUtils.parseLocalpart(roomJid);
+        if (!xmpp.getMucDomain().equalsIgnoreCase(XmppStringUtils.parseDomain(roomJid))
+                || !membership.isInviteAllowed(roomJid, inviter)) {
+            logger.info("Ignoring invitation from {} to room {}", inviter, roomJid);
+            metrics.invited(false);
+            return;
+        }
+        metrics.invited(true);
+        final MultiUserChat existing = rooms.get(roomId);
+        if (existing != null && xmpp.isRoomJoined(roomJid)) {
+            membership.touch(roomId);
+            return;
+        }
+        logger.info("Invited by {} to room {}", inviter, roomId);
+        roomJoiner.joinAll(Collections.singletonList(roomId), new RoomJoiner.Join() {
+            @Override
+            public void join(String roomId) throws Exception {
+                joinRoom(roomId);
+            }
+        });
+    }
+
+    private String roomJid(String roomId) {
+        return roomId + "@" + xmpp.getMucDomain();
+    }
+
+    /**
+     * Invoke the request handler and respond with the result.
+     * Handler function for ChatMessageListener.
+     */
+    @Override
+    public void processMessage(final Chat chat, final Message msg) {
+        receive(XmppStringUtils.parseBareJid(chat.getParticipant()), null, msg, new Conversation() {
+            @Override
+            public boolean send(Message msg, boolean mayBlock) {
+                return xmpp.sendMessage(chat, msg, mayBlock);
+            }
+        });
+    }
+
+    /**
+     * Run a message through the pipeline: filter, parse and admit it on the XMPP listener thread, then
+     * dispatch it to handle, render and send the response.
+     *
+     * @param key requests with the same key (room or participant) are processed in the order they were received
+     * @param roomId null for one-on-one chats
+     */
+    private void receive(final String key, final String roomId, final Message msg, final Conversation conversation) {
+        final long received = System.nanoTime();
+        final boolean accepted = filter(msg, roomId);
+        long t = metrics.stage(Stage.FILTER, received);
+        if (!accepted) return;
+        metrics.received();
+
+        final String [] requestTokens = parse(msg);
+        t = metrics.stage(Stage.PARSE, t);
+
+        final boolean admitted = admit(msg, roomId);
+        final long queued = metrics.stage(Stage.ADMIT, t);
+        if (!admitted) {
+            conversation.send(OutputUtil.createTextMessage(msgBusy), false);
+            return;
+        }
+
+        dispatch(key, msg, new Runnable() {
+            @Override
+            public void run() {
+                metrics.stage(Stage.DISPATCH, queued);
+                final Message responseMsg = respond(msg, requestTokens, followUp(conversation));
+                if (isEmpty(responseMsg)) {
+                    logger.debug("Nothing to respond to {}", key);
+                    return;
+                }
+                final long sending = System.nanoTime();
+                final boolean sent = conversation.send(responseMsg, true);
+                metrics.stage(Stage.SEND, sending);
+                metrics.responded(received, sent);
+                if (!sent) {
+                    logger.warn("Cannot send response to {}", key);
+                }
+            }
+        });
+    }
+
+    /**
+     * @param roomId null for one-on-one chats
+     * @return false if the message is not a request: messages without a body (e.g. chat state notifications) are
+     * ignored, messages in rooms must start with the mucKeyword (or an alias) and not be sent by the bot;
+     * messages delivered before (after a reconnect or rejoin) are ignored
+     */
+    private boolean filter(Message msg, String roomId) {
+        if (isEmpty(msg)) {
+            logger.trace("Ignoring message without a body from {}", msg.getFrom());
+            return false;
+        }
+        if (roomId != null && (!xmpp.getRequestMatcher().isAddressed(msg.getBody())
+                || xmpp.getMucNickname().equals(XmppStringUtils.parseResource(msg.getFrom())))) {
+            return false;
+        }
+        if (duplicates.isDuplicate(msg)) {
+            metrics.duplicate();
+            logger.info("Ignoring duplicate message {} from {}", msg.getStanzaId(), msg.getFrom());
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean isEmpty(Message msg) {
+        return msg.getBody() == null || msg.getBody().trim().length() == 0;
+    }
+
+    private String [] parse(Message msg) {
+        final String body = msg.getBody();
+        logger.debug("Message from {}: {}", msg.getFrom(), body);
+        return xmpp.getRequestMatcher().tokenize(body);
+    }
+
+    /**
+     * @param roomId null for one-on-one chats
+     * @return true if the request may be dispatched; false if the sender, the room or the collector is over its limit
+     */
+    private boolean admit(Message msg, String roomId) {
+        final String sender = roomId == null ? XmppStringUtils.parseBareJid(msg.getFrom()) : msg.getFrom();
+        final AdmissionControl.Result result = admission.tryAcquire(sender, roomId);
+        if (result == AdmissionControl.Result.ADMITTED) {
+            return true;
+        }
+        metrics.shed();
+        logger.info("Turning away request from {} - {}", msg.getFrom(), result);
+        return false;
+    }
+
+    /**
+     * Hand the request over to the dispatcher so that slow requests do not hold up the XMPP listener thread.
+     * Requests with the same key (room or participant) are processed in the order they were received.
+     */
+    private void dispatch(String key, Message msg, final Runnable task) {
+        try {
+            dispatcher.execute(key, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        admission.release();
+                    }
+                }
+            });
+            metrics.dispatched(true);
+        } catch (RejectedExecutionException e) {
+            admission.release();
+            metrics.dispatched(false);
+            logger.warn("Dropping request from {} - too many pending requests for {}", msg.getFrom(), key);
+        }
+    }
+
+    /**
+     * @return posts the result of a request that missed its deadline to the room or chat
+     */
+    private Deadlines.FollowUp<SlackerOutput> followUp(final Conversation conversation) {
+        return new Deadlines.FollowUp<SlackerOutput>() {
+            @Override
+            public void send(SlackerOutput result) {
+                final Message msg = OutputUtil.createResponseMessage(result);
+                metrics.lateResponse(!isEmpty(msg) && conversation.send(msg, true));
+            }
+        };
+    }
+
+    /**
+     * Parse, handle and render the request without sending the response.
+     */
+    public Message process(Message msg) {
+        return process(msg, null);
+    }
+
+    /**
+     * @param followUp posts the result of a request that missed its deadline (null to drop it)
+     */
+    public Message process(Message msg, Deadlines.FollowUp<SlackerOutput> followUp) {
+        if (isEmpty(msg)) {
+            logger.trace("Empty message from {}", msg.getFrom());
+            return new Message();
+        }
+        return respond(msg, parse(msg), followUp);
+    }
+
+    /**
+     * The handle and render stages.
+     */
+    private Message respond(Message msg, String [] requestTokens, Deadlines.FollowUp<SlackerOutput> followUp) {
+        final long start = System.nanoTime();
+        boolean error = true;
+        Message responseMsg = new Message();
+        SlackerOutput output = null;
+        boolean render = false;
+        final String conversation = XmppStringUtils.parseBareJid(msg.getFrom());
+        try {
+            final String page = isMoreRequest(requestTokens) ? pager.nextPage(conversation) : null;
+            if (page != null) {
+                responseMsg = OutputUtil.createTextMessage(page);
+                error = false;
+            } else {
+                final Message cached = responses.get(requestTokens);
+                if (cached != null) {
+                    metrics.cacheHit();
+                    responseMsg = cached;
+                } else {
+                    try {
+                        output = handle(requestTokens, followUp);
+                    } catch (ExecutionException ee) { // ExecutionException is just a wrapper
+                        throw ee.getCause() != null ? (Exception) ee.getCause() : ee;
+                    }
+                }
+                error = false;
+                render = true;
+            }
+        } catch (NoArgumentsFoundException e) {
+            logger.warn("Missing arguments {}, request={} ({})", msg.getFrom(), msg.getBody(), e.getMessage());
+            responseMsg = OutputUtil.createTextMessage(this.msgNoArguments);
+        } catch (InvalidRequestException e) {
+            logger.warn("Invalid request from {}, request={} ({})", msg.getFrom(), msg.getBody(), e.getMessage());
+            responseMsg = OutputUtil.createTextMessage(this.msgInvalidRequest);
+        } catch (SlackerException e) {
+            logger.error("Error while trying to handle message from {}", msg.getFrom(), e);
+            responseMsg = OutputUtil.createTextMessage(this.msgError);
+        } catch (TimeoutException e) {
+            metrics.timedOut();
+            logger.warn("Request from {} timed out, request={}", msg.getFrom(), msg.getBody());
+            // promise a follow-up only if one is actually watching for the result
+            responseMsg = OutputUtil.createTextMessage(e instanceof Deadlines.LateResponseException
+                    ? this.msgLateResponse : this.msgTimeout);
+        } catch (Exception e) {
+            logger.error("Fatal error while trying to handle message from {}", msg.getFrom(), e);
+            responseMsg = OutputUtil.createTextMessage(this.msgFatalError);
+        }
+        final long handled = metrics.stage(Stage.HANDLE, start);
+        if (render) {
+            responseMsg = render(requestTokens, conversation, output, responseMsg);
+            metrics.stage(Stage.RENDER, handled);
+        }
+        metrics.processed(start, error);
+        return responseMsg;
+    }
+
+    /**
+     * @param output output of the request handler, null if the response came from the cache
+     * @param cached response from the cache
+     * @return the response, or its first page if it is long
+     */
+    private Message render(String [] requestTokens, String conversation, SlackerOutput output, Message cached) {
+        Message responseMsg = cached;
+        if (output != null) {
+            responseMsg = OutputUtil.createResponseMessage(output);
+            responses.put(requestTokens, responseMsg);
+        }
+        if (pager.isEnabled()) {
+            final String full = responseMsg.getBody();
+            final String firstPage = pager.firstPage(conversation, full);
+            if (firstPage != full) {
+                responseMsg = OutputUtil.createTextMessage(firstPage);
+            }
+        }
+        return responseMsg;
+    }
+
+    private boolean isMoreRequest(String [] requestTokens) {
+        return pager.isEnabled() && requestTokens.length == 1 && "more".equalsIgnoreCase(requestTokens[0]);
+    }
+
+    /**
+     * Invoke the request handler - or, if an identical request for one of the coalesceCommands is already being
+     * handled, wait for its output. Requests are identical if their tokens are, except for the case of the command.
+     * If the request misses its deadline, a late result goes to the follow-up of the request that invoked the handler.
+     */
+    private SlackerOutput handle(final String [] requestTokens, final Deadlines.FollowUp<SlackerOutput> followUp)
+            throws Exception {
+        final Callable<SlackerOutput> work = new Callable<SlackerOutput>() {
+            @Override
+            public SlackerOutput call() throws Exception {
+                return deadlines.await(requestTokens,
+                        handler.handle(new SlackerRequest(source, requestTokens)), followUp);
+            }
+        };
+        if (!coalesceCommands.matches(RequestMatcher.normalize(requestTokens))) {
+            return work.call();
+        }
+        final SingleFlight.Call<SlackerOutput> call = inFlight.join(RequestMatcher.exact(requestTokens), work);
+        if (!call.isShared()) {
+            return call.get();
+        }
+        metrics.coalesced();
+        try {
+            return call.get();
+        } catch (Deadlines.LateResponseException e) {
+            throw new TimeoutException(); // the late result goes to the first requester only
+        }
+    }
+}
@@ -1,18 +1,31 @@
 package com.labs2160.slacker.plugin.chat.xmpp;
 
 import com.labs2160.slacker.api.Resource;
+import com.labs2160.slacker.plugin.chat.xmpp.metrics.MBeans;
+import com.labs2160.slacker.plugin.chat.xmpp.metrics.ResourceMetrics;
+import org.jivesoftware.smack.PacketListener;
 import org.jivesoftware.smack.SmackException;
-import org.jivesoftware.smack.SmackException.NotConnectedException;
+import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smack.chat.Chat;
+import org.jivesoftware.smack.chat.ChatManager;
+import org.jivesoftware.smack.filter.PacketTypeFilter;
 import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.roster.Roster;
 import org.jivesoftware.smack.tcp.XMPPTCPConnection;
 import org.jivesoftware.smack.tcp.XMPPTCPConnectionConfiguration;
+import org.jivesoftware.smackx.muc.MultiUserChat;
+import org.jivesoftware.smackx.muc.MultiUserChatManager;
+import org.jxmpp.util.XmppStringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.ObjectName;
 import java.io.IOException;
-import java.util.Properties;
+import java.lang.reflect.Field;
+import java.util.*;
 
 
 /**
@@ -22,15 +35,52 @@ import java.util.Properties;
  * Communication with users from other HipChat groups is not permitted.
  * Connections are expected to be long-lived, so any clients connecting repeatedly may be rate limited.
  * Connections are dropped after 150s of inactivity. We suggest sending a single space (" ") as keepalive data every 60 seconds.
+ * (see KeepAliveService)
  * Room history is automatically sent when joining a room unless your JID resource is "bot".
+ *
+ * With <code>connections</code> &gt; 1, the resource logs in several times (resources bot, bot-2, bot-3...)
+ * and spreads rooms and chats over the connections. A room or person always maps to the same connection,
+ * so rooms stay joined on the connection that sends to them and messages keep their order.
+ *
+ * With <code>compression</code> enabled, connections use zlib stream compression (XEP-0138) if the server
+ * offers it and stay uncompressed if it does not. Bytes are counted on the wire and in the XML stream
+ * (see ResourceMetrics), so the saving can be seen.
+ *
+ * With <code>streamManagement</code> enabled and offered by the server (XEP-0198), stanzas are acknowledged.
+ * Streams are not resumed (Smack 4.1.0-rc2 cannot), so a dropped connection always logs in again, rejoins its rooms
+ * and sends the unacknowledged stanzas once more.
+ *
+ * With <code>botProfile</code> enabled, the resource behaves like a bot rather than a chat client: the roster is not
+ * loaded at login and Smack's roster stops keeping the presence of every contact and room occupant - only the latest
+ * presence of up to <code>presenceCacheSize</code> people is kept (see PresenceCache). For organizations with thousands
+ * of users this saves login work and heap. Subscription requests are left unanswered, so the bot only ever sees the
+ * presence of people who share it with it.
+ *
+ * With <code>virtualThreads</code> enabled on Java 21 or later, the collectors and endpoints using this resource run
+ * each request, room join and delivery on its own virtual thread (see VirtualThreads) instead of a thread pool.
  */
 public class XMPPResource implements Resource {
 
     public final static int DEFAULT_PORT = 5222;
 
-    private final static Logger logger = LoggerFactory.getLogger(XMPPResource.class);
+    public final static int DEFAULT_SEND_QUEUE_CAPACITY = 1000;
+
+    public final static int DEFAULT_UNSENT_BUFFER_SIZE = 100;
+
+    public final static int DEFAULT_CONNECTIONS = 1;
+
+    public final static int DEFAULT_MAX_MESSAGE_LENGTH = 10000;
+
+    public final static int DEFAULT_HANDLE_CACHE_SIZE = 1000;
+
+    public final static long DEFAULT_HANDLE_IDLE_TIMEOUT = 30 * 60 * 1000;
+
+    /** people whose presence is kept with the bot profile */
+    public final static int DEFAULT_PRESENCE_CACHE_SIZE = 1000;
+
+    private final static String RESOURCE = "bot";
 
-    private XMPPTCPConnection conn;
+    private final static Logger logger = LoggerFactory.getLogger(XMPPResource.class);
 
     /** Jabber ID */
     private String user;
@@ -42,13 +92,48 @@ public class XMPPResource implements Resource {
     /** keyword used for this to react to message in a multi-user chat room - must be the first word of the message */
     private String mucKeyword;
 
+    /** recognizes messages that start with the mucKeyword or one of its aliases */
+    private RequestMatcher requestMatcher;
+
     /** multi-user chat room nickname */
     private String mucNickname;
 
     /** multi-user chat (MUC) domain (e.g. conf.hipchat.com) */
     private String mucDomain;
 
-    private XMPPTCPConnectionConfiguration config;
+    /** the first one is the primary connection - the only one that receives messages sent to the bare JID */
+    private List<PooledConnection> pool;
+
+    /** assigns rooms and people to connections */
+    private ConsistentHash sharding;
+
+    private ResourceMetrics metrics;
+
+    /** longer message bodies are sent as several messages (0 for no limit) */
+    private int maxMessageLength = DEFAULT_MAX_MESSAGE_LENGTH;
+
+    /** chats by person JID, shared by all components using this resource */
+    private HandleCache<String, Chat> chats;
+
+    /** rooms by room JID, shared by all components using this resource */
+    private HandleCache<String, MultiUserChat> rooms;
+
+    /**
+     * room JIDs joined since their connection was established - MultiUserChat.isJoined() stays true
+     * when the connection drops, although the server has forgotten the occupant
+     */
+    private final Set<String> joinedRooms = Collections.synchronizedSet(new HashSet<String>());
+
+    /** room JIDs a collector listens to - they stay joined when their handle is evicted */
+    private final Set<String> keptRooms = Collections.synchronizedSet(new HashSet<String>());
+
+    /** latest presences kept instead of the roster's - null while the roster keeps them */
+    private PresenceCache presences;
+
+    /** run requests, room joins and deliveries on virtual threads (if the JVM has them) */
+    private boolean virtualThreads;
+
+    private ObjectName mbeanName;
 
     public XMPPResource() { }
 
@@ -73,6 +158,11 @@ public class XMPPResource implements Resource {
         mucDomain = getRequiredConfigParam(configuration, "mucDomain");
         mucNickname = getRequiredConfigParam(configuration, "mucNickname");
         mucKeyword = getRequiredConfigParam(configuration, "mucKeyword");
+        final List<String> triggers = new ArrayList<>();
+        triggers.add(mucKeyword);
+        triggers.addAll(Arrays.asList(configuration.getProperty("mucKeywordAliases", "").split(",")));
+        requestMatcher = new RequestMatcher(triggers);
+        virtualThreads = Boolean.parseBoolean(configuration.getProperty("virtualThreads", "false"));
 
         if (user.indexOf("@") < 0) {
             logger.warn("User \"{}\" does not have host info. Jabber user IDs usually has format: <user_id>@<host> - e.g. {}@{}",
@@ -80,16 +170,104 @@ public class XMPPResource implements Resource {
             );
         }
 
-        config = XMPPTCPConnectionConfiguration.builder()
-                .setHost(host).setPort(port)
-                .setServiceName(host)
-                .setUsernameAndPassword(user, configuration.getProperty("password"))
-                .setResource("bot")
-                .setConnectTimeout(10000)
-                .setSendPresence(true)
-                .build();
-        logger.debug("user={}, host={}, port={}, mucNickname={}, mucDomain={}, mucKeyword={}", user, host, port, mucNickname, mucDomain, mucKeyword);
-        conn = new XMPPTCPConnection(config);
+        final int connections = Math.max(Integer.parseInt(configuration.getProperty("connections", "" + DEFAULT_CONNECTIONS)), 1);
+        logger.debug("user={}, host={}, port={}, mucNickname={}, mucDomain={}, mucKeyword={}, connections={}",
+                user, host, port, mucNickname, mucDomain, mucKeyword, connections);
+        metrics = new ResourceMetrics(this);
+        final boolean compression = Boolean.parseBoolean(configuration.getProperty("compression", "false"));
+        if (compression) CountingZlibCompression.install();
+        pool = new ArrayList<>(connections);
+        for (int i = 0; i < connections; i++) {
+            final XMPPTCPConnectionConfiguration config = XMPPTCPConnectionConfiguration.builder()
+                    .setHost(host).setPort(port)
+                    .setServiceName(host)
+                    .setUsernameAndPassword(user, configuration.getProperty("password"))
+                    .setResource(i == 0 ? RESOURCE : RESOURCE + "-" + (i + 1))
+                    .setConnectTimeout(10000)
+                    .setSendPresence(i == 0)
+                    .setCompressionEnabled(compression)
+                    .setSocketFactory(new CountingSocketFactory(metrics))
+                    .build();
+            pool.add(new PooledConnection(config, i == 0, connections, configuration, metrics));
+        }
+        sharding = new ConsistentHash(connections);
+
+        final boolean botProfile = Boolean.parseBoolean(configuration.getProperty("botProfile", "false"));
+        final boolean rosterAtLogin = Boolean.parseBoolean(configuration.getProperty("rosterAtLogin", "" + !botProfile));
+        final int presenceCacheSize = Integer.parseInt(configuration.getProperty("presenceCacheSize",
+                "" + (botProfile ? DEFAULT_PRESENCE_CACHE_SIZE : -1)));
+        presences = presenceCacheSize >= 0 ? new PresenceCache(presenceCacheSize, mucDomain) : null;
+        for (PooledConnection pc : pool) {
+            configureRoster(pc.getConnection(), rosterAtLogin);
+        }
+        // registered before the listeners of the collectors and endpoints, which join the rooms again
+        addReconnectListener(new ReconnectManager.Listener() {
+            @Override
+            public void reconnected(XMPPConnection connection) {
+                forgetRooms(connection);
+            }
+        });
+
+        maxMessageLength = Integer.parseInt(configuration.getProperty("maxMessageLength", "" + DEFAULT_MAX_MESSAGE_LENGTH));
+
+        final int handleCacheSize = Integer.parseInt(configuration.getProperty("handleCacheSize", "" + DEFAULT_HANDLE_CACHE_SIZE));
+        final long handleIdleTimeout = Long.parseLong(configuration.getProperty("handleIdleTimeout", "" + DEFAULT_HANDLE_IDLE_TIMEOUT));
+        chats = new HandleCache<>(new HandleCache.Factory<String, Chat>() {
+            @Override
+            public Chat create(String person) {
+                logger.debug("Starting chat with {}", person);
+                return ChatManager.getInstanceFor(getConnection(person)).createChat(person);
+            }
+        }, new HandleCache.RemovalListener<String, Chat>() {
+            @Override
+            public void removed(String person, Chat chat) {
+                chat.close();
+            }
+        }, handleCacheSize, handleIdleTimeout);
+        // an evicted room is left, so that the rooms joined for endpoints are bounded as well - unless a collector
+        // listens to it; Smack hands out the same MultiUserChat for the room again
+        rooms = new HandleCache<>(new HandleCache.Factory<String, MultiUserChat>() {
+            @Override
+            public MultiUserChat create(String roomJid) {
+                return MultiUserChatManager.getInstanceFor(getConnection(roomJid)).getMultiUserChat(roomJid);
+            }
+        }, new HandleCache.RemovalListener<String, MultiUserChat>() {
+            @Override
+            public void removed(String roomJid, MultiUserChat muc) {
+                if (keptRooms.contains(roomJid) || !joinedRooms.contains(roomJid)) return;
+                try {
+                    leaveRoom(muc);
+                    logger.info("Left room {} - not used lately", roomJid);
+                } catch (SmackException.NotConnectedException e) {
+                    logger.debug("Not connected while leaving room {} - {}", roomJid, e.getMessage());
+                }
+            }
+        }, handleCacheSize, handleIdleTimeout);
+    }
+
+    /**
+     * @param rosterAtLogin false to skip downloading the roster at login
+     */
+    private void configureRoster(XMPPTCPConnection conn, boolean rosterAtLogin) {
+        final Roster roster = Roster.getInstanceFor(conn);
+        roster.setRosterLoadedAtLogin(rosterAtLogin);
+        if (presences != null) {
+            // the roster has no setting to stop keeping presences - take its listener off the connection
+            try {
+                final Field listener = Roster.class.getDeclaredField("presencePacketListener");
+                listener.setAccessible(true);
+                conn.removeSyncPacketListener((PacketListener) listener.get(roster));
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                logger.warn("Cannot stop the roster from keeping presences - {}", e.toString());
+            }
+        }
+        conn.addSyncPacketListener(new PacketListener() {
+            @Override
+            public void processPacket(Stanza presence) {
+                metrics.presenceReceived();
+                if (presences != null) presences.processPacket(presence);
+            }
+        }, PacketTypeFilter.PRESENCE);
     }
 
     private String getRequiredConfigParam(Properties configuration, String key) {
@@ -101,70 +279,319 @@ public class XMPPResource implements Resource {
     }
 
     public void login() {
-        connect(false);
-        try {
-            conn.login();
-        } catch(SmackException | IOException | XMPPException e) {
-            throw new IllegalStateException("Cannot initialize XMPP connection to " + host + ":" + port +
-                    " using user=" + user + ", mucDomain=" + mucDomain + " - " + e.getMessage(), e);
+        mbeanName = MBeans.register("XMPPResource", user, metrics);
+        for (PooledConnection pc : pool) {
+            try {
+                pc.login();
+            } catch(SmackException | IOException | XMPPException e) {
+                throw new IllegalStateException("Cannot initialize XMPP connection to " + host + ":" + port +
+                        " using user=" + user + ", mucDomain=" + mucDomain + " - " + e.getMessage(), e);
+            }
         }
     }
 
     public void shutdown() {
         logger.debug("Disconnecting");
-        conn.disconnect();
+        for (PooledConnection pc : pool) {
+            pc.shutdown();
+        }
+        MBeans.unregister(mbeanName);
+        mbeanName = null;
     }
 
+    /**
+     * @return true if all connections are up and the server is answering keepalive pings
+     */
     public boolean isActive() {
-        return conn.isConnected();
+        for (PooledConnection pc : pool) {
+            if (!pc.isActive()) return false;
+        }
+        return true;
+    }
+
+    public boolean isConnected() {
+        for (PooledConnection pc : pool) {
+            if (!pc.getConnection().isConnected()) return false;
+        }
+        return true;
+    }
+
+    public boolean isAuthenticated() {
+        for (PooledConnection pc : pool) {
+            if (!pc.getConnection().isAuthenticated()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return round trip time of the last keepalive ping (of the primary connection), or -1 if not known
+     */
+    public long getLastRoundTripMillis() {
+        return pool.get(0).getLastRoundTripMillis();
+    }
+
+    /**
+     * @return messages waiting in the send queues
+     */
+    public int getSendQueuePending() {
+        int pending = 0;
+        for (PooledConnection pc : pool) {
+            pending += pc.getPendingCount();
+        }
+        return pending;
+    }
+
+    /**
+     * @return connections using stream compression
+     */
+    public int getCompressedConnections() {
+        int compressed = 0;
+        for (PooledConnection pc : pool) {
+            if (pc.getConnection().isUsingCompression()) compressed++;
+        }
+        return compressed;
+    }
+
+    /**
+     * @return roster entries loaded over all connections
+     */
+    public int getRosterEntries() {
+        int entries = 0;
+        for (PooledConnection pc : pool) {
+            entries += Roster.getInstanceFor(pc.getConnection()).getEntryCount();
+        }
+        return entries;
+    }
+
+    /**
+     * @return people whose presence is kept, -1 while the roster keeps the presences
+     */
+    public int getPresencesCached() {
+        return presences == null ? -1 : presences.size();
+    }
+
+    /**
+     * @return the latest presence of the person, null if unknown - with the bot profile, only the presence of
+     * the most recently seen people is kept
+     */
+    public Presence getPresence(String jid) {
+        if (presences != null) {
+            return presences.get(jid);
+        }
+        final Presence presence = Roster.getInstanceFor(getConnection(XmppStringUtils.parseBareJid(jid)))
+                .getPresence(jid);
+        return presence.isAvailable() ? presence : null;
+    }
+
+    public ResourceMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Register to be notified after a dropped connection has been re-established
+     * (e.g. to join rooms again). With several connections, the listener is told which one reconnected.
+     */
+    public void addReconnectListener(ReconnectManager.Listener listener) {
+        for (PooledConnection pc : pool) {
+            pc.addReconnectListener(listener);
+        }
+    }
+
+    public void removeReconnectListener(ReconnectManager.Listener listener) {
+        for (PooledConnection pc : pool) {
+            pc.removeReconnectListener(listener);
+        }
+    }
+
+    /**
+     * Drop all connections (e.g. when they are no longer responsive) and reconnect in the background.
+     */
+    public void reconnect() {
+        for (PooledConnection pc : pool) {
+            pc.reconnect();
+        }
+    }
+
+    /**
+     * Join the room without history unless it has been joined since its connection was established.
+     * Rooms are shared by the collectors and endpoints using this resource - only the first of them joins.
+     * Messages to the room that could not be sent while disconnected are sent once it is joined,
+     * since the server does not take messages from non-occupants.
+     *
+     * @return false if the room had already been joined
+     */
+    public boolean joinRoom(MultiUserChat muc, long timeoutMillis) throws XMPPException, SmackException {
+        final String roomJid = muc.getRoom();
+        synchronized (muc) {
+            if (joinedRooms.contains(roomJid)) return false;
+            logger.info("Joining room {}", roomJid);
+            RoomJoiner.join(muc, mucNickname, timeoutMillis);
+            joinedRooms.add(roomJid);
+        }
+        shardFor(roomJid).replayUnsent(roomJid);
+        return true;
+    }
+
+    /**
+     * @return true if the room has been joined since its connection was established
+     */
+    public boolean isRoomJoined(String roomJid) {
+        return joinedRooms.contains(roomJid);
+    }
+
+    /**
+     * Keep the room joined when its handle is evicted - for rooms a collector listens to.
+     */
+    public void keepRoom(String roomJid) {
+        keptRooms.add(roomJid);
+    }
+
+    public void leaveRoom(MultiUserChat muc) throws SmackException.NotConnectedException {
+        synchronized (muc) {
+            keptRooms.remove(muc.getRoom());
+            joinedRooms.remove(muc.getRoom());
+            muc.leave();
+        }
+    }
+
+    /**
+     * The server forgets the rooms of a connection that dropped.
+     */
+    private void forgetRooms(XMPPConnection connection) {
+        synchronized (joinedRooms) {
+            final Iterator<String> it = joinedRooms.iterator();
+            while (it.hasNext()) {
+                if (getConnection(it.next()) == connection) it.remove();
+            }
+        }
     }
 
     public boolean sendMessage(Chat chat, String message) {
         final Message msg = new Message();
         msg.setBody(message);
-        return sendMessage(chat, msg, 2);
+        return sendMessage(chat, msg);
     }
 
+    /**
+     * Queue a message for a one-on-one chat.
+     *
+     * @return false if the message could not be queued
+     */
     public boolean sendMessage(Chat chat, Message msg) {
-        return sendMessage(chat, msg, 2);
-    }
-
-    private boolean sendMessage(Chat chat, Message msg, int attempts) {
-        try {
-            chat.sendMessage(msg);
-            return true;
-        } catch (NotConnectedException e) {
-            logger.warn("Cannot send message - {} ({} attempts left)", e.getMessage(), attempts);
-            if (attempts > 0 && connect(true)) {
-                return sendMessage(chat, msg, --attempts); // retry
-            } else {
-                logger.error("Failed to send response to {}, body={}", chat.getParticipant(), msg.getBody());
-            }
-            return false;
-        }
+        return sendMessage(chat, msg, true);
     }
 
-    private boolean connect(boolean quietly) {
-        if (! conn.isConnected()) {
-            try {
-                logger.debug("Connecting to server {}:{}", host, port);
-                conn.connect();
-            } catch (SmackException | IOException | XMPPException e) {
-                if (quietly) {
-                    logger.warn("Could not connect to server; " + e.getMessage(), e);
-                    return false; // connect failed, don't throw Exception
-                } else {
-                    throw new IllegalStateException("Cannot connect to server; " + e.getMessage(), e);
-                }
-            }
+    /**
+     * @param mayBlock false to drop the message rather than wait for room in a full send queue - for messages
+     *                 sent on the XMPP listener thread, which would hold up all incoming stanzas while waiting
+     */
+    public boolean sendMessage(Chat chat, Message msg, boolean mayBlock) {
+        return enqueue(msg, chat.getParticipant(), Message.Type.chat, chat.getThreadID(), mayBlock);
+    }
+
+    /**
+     * Queue a message for a multi-user chat room.
+     *
+     * @return false if the message could not be queued
+     */
+    public boolean sendMessage(MultiUserChat muc, Message msg) {
+        return sendMessage(muc, msg, true);
+    }
+
+    /**
+     * @param mayBlock see {@link #sendMessage(Chat, Message, boolean)}
+     */
+    public boolean sendMessage(MultiUserChat muc, Message msg, boolean mayBlock) {
+        return enqueue(msg, muc.getRoom(), Message.Type.groupchat, null, mayBlock);
+    }
+
+    /**
+     * A body longer than maxMessageLength is sent as several messages split on line boundaries. They are queued
+     * together for the same destination, so they go out in order - and all of them or none - while the outbound
+     * queue keeps serving other destinations.
+     */
+    private boolean enqueue(Message msg, String to, Message.Type type, String thread, boolean mayBlock) {
+        final String body = msg.getBody();
+        if (body == null || maxMessageLength <= 0 || body.length() <= maxMessageLength) {
+            return enqueue(addressedCopy(msg, to, type, thread), mayBlock);
         }
-        return true;
+        final List<Message> chunks = new ArrayList<>();
+        for (String chunk : OutputUtil.split(body, maxMessageLength)) {
+            chunks.add(addressedCopy(OutputUtil.createTextMessage(chunk), to, type, thread));
+        }
+        final boolean queued = shardFor(to).offer(chunks, mayBlock);
+        metrics.queued(queued);
+        return queued;
+    }
+
+    /**
+     * Messages to a room or person always go through the same connection, so they keep their order
+     * (and room messages go out through the connection that joined the room).
+     */
+    private boolean enqueue(Message msg, boolean mayBlock) {
+        final boolean queued = shardFor(msg.getTo()).offer(msg, mayBlock);
+        metrics.queued(queued);
+        return queued;
+    }
+
+    /**
+     * The same response message may be queued for several recipients, so each one gets its own copy.
+     */
+    private static Message addressedCopy(Message msg, String to, Message.Type type, String thread) {
+        final Message copy = new Message(to, type);
+        copy.setThread(thread);
+        if (msg.getSubject() != null) copy.setSubject(msg.getSubject());
+        copy.setBody(msg.getBody());
+        copy.addExtensions(msg.getExtensions());
+        return copy;
+    }
+
+    private PooledConnection shardFor(String jid) {
+        return pool.get(sharding.nodeFor(XmppStringUtils.parseBareJid(jid)));
     }
 
+    /**
+     * @return the primary connection
+     */
     public XMPPTCPConnection getConnection() {
-        return conn;
+        return pool.get(0).getConnection();
+    }
+
+    /**
+     * @param jid room or person (full or bare JID)
+     * @return the connection that the room or person is assigned to - use it to join the room or start the chat
+     */
+    public XMPPTCPConnection getConnection(String jid) {
+        return shardFor(jid).getConnection();
+    }
+
+    /**
+     * @return all connections, the primary one first
+     */
+    public List<XMPPTCPConnection> getConnections() {
+        final List<XMPPTCPConnection> connections = new ArrayList<>(pool.size());
+        for (PooledConnection pc : pool) {
+            connections.add(pc.getConnection());
+        }
+        return connections;
     }
 
+    /**
+     * @return chat handles by person JID - safe to use from any thread
+     */
+    public HandleCache<String, Chat> getChatHandles() {
+        return chats;
+    }
+
+    /**
+     * @return room handles by room JID - safe to use from any thread
+     */
+    public HandleCache<String, MultiUserChat> getRoomHandles() {
+        return rooms;
+    }
+
+    public int getMaxMessageLength() { return maxMessageLength; }
+
     public String getUser() { return user; }
 
     public String getMucDomain() { return mucDomain; }
@@ -172,4 +599,8 @@ public class XMPPResource implements Resource {
     public String getMucNickname() { return mucNickname; }
 
     public String getMucKeyword() { return mucKeyword; }
+
+    public RequestMatcher getRequestMatcher() { return requestMatcher; }
+
+    public boolean isVirtualThreads() { return virtualThreads; }
 }
@@ -0,0 +1,42 @@
+package com.labs2160.slacker.plugin.chat.xmpp.hipchat;
+
+import java.util.*;
+
+/**
+ * Outcome of delivering a response to each of the targets (room or person JIDs) of an endpoint.
+ */
+public class DeliveryReport {
+
+    private final List<String> delivered = new ArrayList<>();
+
+    /** target JID -> reason for the failure */
+    private final Map<String, String> failed = new LinkedHashMap<>();
+
+    public synchronized void delivered(String target) {
+        delivered.add(target);
+    }
+
+    public synchronized void failed(String target, String reason) {
+        failed.put(target, reason);
+    }
+
+    /**
+     * @return true if the response was delivered to every target
+     */
+    public synchronized boolean isComplete() {
+        return failed.isEmpty();
+    }
+
+    public synchronized List<String> getDelivered() {
+        return new ArrayList<>(delivered);
+    }
+
+    public synchronized Map<String, String> getFailed() {
+        return new LinkedHashMap<>(failed);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "delivered=" + delivered + ", failed=" + failed;
+    }
+}
@@ -4,38 +4,54 @@ import com.labs2160.slacker.api.Endpoint;
 import com.labs2160.slacker.api.Resource;
 import com.labs2160.slacker.api.SlackerException;
 import com.labs2160.slacker.api.response.SlackerOutput;
-import com.labs2160.slacker.api.response.TextOutput;
+import com.labs2160.slacker.plugin.chat.xmpp.NamedThreadFactory;
 import com.labs2160.slacker.plugin.chat.xmpp.OutputUtil;
+import com.labs2160.slacker.plugin.chat.xmpp.ReconnectManager;
+import com.labs2160.slacker.plugin.chat.xmpp.VirtualThreads;
 import com.labs2160.slacker.plugin.chat.xmpp.XMPPResource;
+import com.labs2160.slacker.plugin.chat.xmpp.metrics.EndpointMetrics;
+import com.labs2160.slacker.plugin.chat.xmpp.metrics.MBeans;
 import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smack.chat.Chat;
-import org.jivesoftware.smack.chat.ChatManager;
 import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smackx.muc.MultiUserChat;
-import org.jivesoftware.smackx.muc.MultiUserChatManager;
-import org.jivesoftware.smackx.xhtmlim.packet.XHTMLExtension;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Properties;
-import java.util.StringTokenizer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class HipChatEndpoint implements Endpoint {
+public class HipChatEndpoint implements Endpoint, ReconnectManager.Listener {
+
+    public final static int DEFAULT_DELIVERY_THREADS = 8;
+
+    public final static long DEFAULT_DELIVERY_TIMEOUT = 10000;
 
     private final static Logger logger = LoggerFactory.getLogger(HipChatEndpoint.class);
 
+    /** several endpoints usually share one XMPPResource - numbered to keep their MBean names apart */
+    private final static AtomicInteger instances = new AtomicInteger();
+
     private XMPPResource xmpp;
 
-    private Map<String, Chat> people;
+    /** person JIDs - the chats themselves are kept by the XMPPResource and shared with other endpoints */
+    private final Set<String> people = new LinkedHashSet<>();
 
-    private Map<String, MultiUserChat> rooms;
+    /** room ids - the rooms themselves are kept by the XMPPResource and shared with other endpoints */
+    private final Set<String> rooms = new LinkedHashSet<>();
 
-    public HipChatEndpoint() {
-        people = new HashMap<>();
-        rooms = new HashMap<>();
-    }
+    /** delivers to the rooms and people in parallel (each on its own virtual thread if enabled) */
+    private ExecutorService deliveryExecutor;
+
+    /** how long to wait for the delivery to a single room or person (ms) */
+    private long deliveryTimeout = DEFAULT_DELIVERY_TIMEOUT;
+
+    private final EndpointMetrics metrics = new EndpointMetrics();
+
+    public HipChatEndpoint() { }
 
     @Override
     public void setComponents(Map<String, Resource> resources, Properties config) {
@@ -45,95 +61,143 @@ public class HipChatEndpoint implements Endpoint {
         logger.debug("People: {}", peopleList);
         StringTokenizer st = new StringTokenizer(peopleList, ", "); // comma-separated
         while(st.hasMoreTokens()) {
-            people.put(st.nextToken(), null);
+            people.add(st.nextToken());
         }
 
         final String mucRooms = config.getProperty("mucRooms", "");
         logger.debug("Rooms: {}", mucRooms);
         st = new StringTokenizer(mucRooms, ", "); // comma-separated
         while(st.hasMoreTokens()) {
-            rooms.put(st.nextToken(), null);
+            rooms.add(st.nextToken());
         }
-    }
 
-    @Override
-    public boolean deliverResponse(SlackerOutput output) throws SlackerException {
-        boolean success = false;
-        Message msg = createResponseMessage(output);
-
-        success |= deliverToRooms(msg);
-        success |= deliverToPeople(msg);
+        final int deliveryThreads = Integer.parseInt(config.getProperty("deliveryThreads", "" + DEFAULT_DELIVERY_THREADS));
+        deliveryTimeout = Long.parseLong(config.getProperty("deliveryTimeout", "" + DEFAULT_DELIVERY_TIMEOUT));
+        deliveryExecutor = VirtualThreads.newThreadPerTaskExecutor("hipchat-delivery", xmpp.isVirtualThreads());
+        if (deliveryExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(deliveryThreads, deliveryThreads, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("hipchat-delivery"));
+            executor.allowCoreThreadTimeOut(true);
+            deliveryExecutor = executor;
+        }
+        xmpp.addReconnectListener(this);
 
-        return success;
+        MBeans.register("HipChatEndpoint", xmpp.getUser() + "-" + instances.incrementAndGet(), metrics);
     }
 
-    private boolean deliverToPeople(Message msg) {
-        boolean success = true;
-        if (!people.isEmpty()) logger.debug("Delivering message to people: {}", people.keySet());
-        for (String person : people.keySet()) {
-            try {
-                Chat chat = people.get(person);
-
-                if (chat == null) {
-                    chat = ChatManager.getInstanceFor(xmpp.getConnection())
-                            .createChat(person);
-                    logger.info("Starting chat with {}", person);
-                    people.put(person, chat);
-                }
-                chat.sendMessage(msg);
-
-            } catch (Exception e) {
-                success = false;
-                logger.warn("Could not deliver message to person \"{}\" - {}", person, e.getMessage());
+    /**
+     * Handler function for ReconnectManager.Listener.
+     * Rooms that were joined before the connection dropped need to be joined again.
+     * The joins run on the delivery threads so that they do not hold up the reconnect, and skip the rooms that
+     * a collector using the same resource has joined already.
+     */
+    @Override
+    public void reconnected(XMPPConnection connection) {
+        for (final String roomId : rooms) {
+            final MultiUserChat chat = xmpp.getRoomHandles().getIfPresent(roomJid(roomId));
+            if (chat != null && xmpp.getConnection(chat.getRoom()) == connection) {
+                deliveryExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            xmpp.joinRoom(chat, deliveryTimeout);
+                        } catch (XMPPException | SmackException e) {
+                            logger.warn("Could not rejoin room \"{}\" - {}", roomId, e.getMessage());
+                        }
+                    }
+                });
             }
         }
-        return success;
     }
 
-    private boolean deliverToRooms(Message msg) {
-        boolean success = true;
-        if (!rooms.isEmpty()) logger.debug("Delivering message to rooms {}", rooms.keySet());
-        for (String roomId : rooms.keySet()) {
-            try {
-                MultiUserChat chat = rooms.get(roomId);
-                if (chat == null) {
-                    MultiUserChatManager mucm = MultiUserChatManager.getInstanceFor(xmpp.getConnection());
-                    chat = mucm.getMultiUserChat(roomId + "@" + xmpp.getMucDomain());
-                    logger.info("Joining room {}", roomId);
-                    rooms.put(roomId, chat);
+    /**
+     * @return true if the output reached at least one room or person (see {@link #deliver(SlackerOutput)}
+     * for the outcome for each of them)
+     */
+    @Override
+    public boolean deliverResponse(SlackerOutput output) throws SlackerException {
+        final DeliveryReport report = deliver(output);
+        if (!report.isComplete()) {
+            logger.warn("Delivery incomplete - {}", report);
+        }
+        return !report.getDelivered().isEmpty();
+    }
+
+    /**
+     * Deliver the output to all rooms and people in parallel.
+     * A room or person that does not respond within the delivery timeout does not hold up the others
+     * (their handles are looked up on the delivery threads too, as that may create the chat or room).
+     *
+     * @return the outcome for each room and person
+     */
+    public DeliveryReport deliver(SlackerOutput output) {
+        final long start = System.nanoTime();
+        final Message msg = OutputUtil.createResponseMessage(output);
+        final DeliveryReport report = new DeliveryReport();
+
+        final Map<String, Callable<Boolean>> deliveries = new LinkedHashMap<>();
+        if (!rooms.isEmpty()) logger.debug("Delivering message to rooms {}", rooms);
+        for (String roomId : rooms) {
+            final String roomJid = roomJid(roomId);
+            deliveries.put(roomJid, new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    final MultiUserChat chat = xmpp.getRoomHandles().get(roomJid);
+                    // the room is shared with other endpoints and collectors - joined only once
+                    xmpp.joinRoom(chat, deliveryTimeout);
+                    return xmpp.sendMessage(chat, msg);
                 }
-                if (!chat.isJoined()) {
-                    try {
-                        chat.join(xmpp.getMucNickname());
-                    } catch (SmackException e) {
-                        logger.warn("Could not join room \"{}\" - {}", roomId, e.getMessage());
-                    }
+            });
+        }
+        if (!people.isEmpty()) logger.debug("Delivering message to people: {}", people);
+        for (final String person : people) {
+            deliveries.put(person, new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    final Chat chat = xmpp.getChatHandles().get(person);
+                    return xmpp.sendMessage(chat, msg);
                 }
-                chat.sendMessage(msg);
+            });
+        }
 
-            } catch (Exception e) {
-                success = false;
-                logger.warn("Could not deliver message to room \"{}\" - {}", roomId, e.getMessage());
+        final Map<String, Future<Boolean>> futures = new LinkedHashMap<>();
+        for (Map.Entry<String, Callable<Boolean>> delivery : deliveries.entrySet()) {
+            futures.put(delivery.getKey(), deliveryExecutor.submit(delivery.getValue()));
+        }
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deliveryTimeout);
+        for (Map.Entry<String, Future<Boolean>> f : futures.entrySet()) {
+            final String target = f.getKey();
+            try {
+                if (f.getValue().get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS)) {
+                    report.delivered(target);
+                } else {
+                    report.failed(target, "could not queue message");
+                }
+            } catch (TimeoutException e) {
+                f.getValue().cancel(true);
+                report.failed(target, "timed out after " + deliveryTimeout + " ms");
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                report.failed(target, cause.getMessage() != null ? cause.getMessage() : cause.toString());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                f.getValue().cancel(true);
+                report.failed(target, "interrupted");
             }
         }
-        return success;
+        final Map<String, String> failed = report.getFailed();
+        for (Map.Entry<String, String> failure : failed.entrySet()) {
+            logger.warn("Could not deliver message to \"{}\" - {}", failure.getKey(), failure.getValue());
+        }
+        metrics.delivered(start, report.getDelivered().size(), failed.size());
+        return report;
     }
 
-    private Message createResponseMessage(SlackerOutput output) {
-        Message responseMsg = new Message();
-        if (output instanceof TextOutput) {
-            XHTMLExtension xhtmlExtension = new XHTMLExtension();
-            TextOutput to = (TextOutput) output;
-            responseMsg.setBody(to.getMessage());
-            String html = OutputUtil.plainTextToJabberHtml(to.getMessage());
-            logger.debug(html);
-            xhtmlExtension.addBody(html);
-            logger.debug("Message: {}", html);
-            responseMsg.addExtension(xhtmlExtension);
-        } else {
-            responseMsg.setBody("Error - response type " + output.getClass().getSimpleName() + " not yet supported");
-        }
+    public EndpointMetrics getMetrics() {
+        return metrics;
+    }
 
-        return responseMsg;
+    private String roomJid(String roomId) {
+        return roomId + "@" + xmpp.getMucDomain();
     }
-}
\ No newline at end of file
+}
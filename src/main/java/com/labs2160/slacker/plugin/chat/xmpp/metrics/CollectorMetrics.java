@@ -0,0 +1,251 @@
+package com.labs2160.slacker.plugin.chat.xmpp.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latencies of a collector.
+ * The process latency is the time spent in the request handler; the response latency runs from
+ * receiving a request until its response is handed to the send queue (including time waiting for a dispatch thread).
+ * Stage latencies break the response latency down by pipeline stage.
+ */
+public class CollectorMetrics implements CollectorMetricsMBean {
+
+    /** Stages of the collector pipeline, in the order a request goes through them */
+    public enum Stage { FILTER, PARSE, ADMIT, DISPATCH, HANDLE, RENDER, SEND }
+
+    private final AtomicLong requestsReceived = new AtomicLong();
+
+    private final AtomicLong requestsDuplicated = new AtomicLong();
+
+    private final AtomicLong requestsShed = new AtomicLong();
+
+    private final AtomicLong requestsDispatched = new AtomicLong();
+
+    private final AtomicLong requestsRejected = new AtomicLong();
+
+    private final AtomicLong responsesCached = new AtomicLong();
+
+    private final AtomicLong requestsCoalesced = new AtomicLong();
+
+    private final AtomicLong requestsProcessed = new AtomicLong();
+
+    private final AtomicLong requestErrors = new AtomicLong();
+
+    private final AtomicLong requestsTimedOut = new AtomicLong();
+
+    private final AtomicLong lateResponses = new AtomicLong();
+
+    private final AtomicLong lateResponsesNotSent = new AtomicLong();
+
+    private final AtomicLong responsesNotSent = new AtomicLong();
+
+    private final AtomicLong roomJoins = new AtomicLong();
+
+    private final AtomicLong roomJoinFailures = new AtomicLong();
+
+    private final AtomicLong roomsLeft = new AtomicLong();
+
+    private final AtomicLong invitationsAccepted = new AtomicLong();
+
+    private final AtomicLong invitationsIgnored = new AtomicLong();
+
+    private final LatencyHistogram processLatency = new LatencyHistogram();
+
+    private final LatencyHistogram responseLatency = new LatencyHistogram();
+
+    private final LatencyHistogram [] stageLatency = new LatencyHistogram[Stage.values().length];
+
+    public CollectorMetrics() {
+        for (int i = 0; i < stageLatency.length; i++) {
+            stageLatency[i] = new LatencyHistogram();
+        }
+    }
+
+    public void received() { requestsReceived.incrementAndGet(); }
+
+    public void duplicate() { requestsDuplicated.incrementAndGet(); }
+
+    public void shed() { requestsShed.incrementAndGet(); }
+
+    public void dispatched(boolean accepted) {
+        if (accepted) requestsDispatched.incrementAndGet();
+        else requestsRejected.incrementAndGet();
+    }
+
+    public void cacheHit() { responsesCached.incrementAndGet(); }
+
+    public void coalesced() { requestsCoalesced.incrementAndGet(); }
+
+    public void timedOut() { requestsTimedOut.incrementAndGet(); }
+
+    public void lateResponse(boolean sent) {
+        if (sent) lateResponses.incrementAndGet();
+        else lateResponsesNotSent.incrementAndGet();
+    }
+
+    /**
+     * @param startNanos {@link System#nanoTime()} when the stage started
+     * @return {@link System#nanoTime()} now, when the next stage starts
+     */
+    public long stage(Stage stage, long startNanos) {
+        final long now = System.nanoTime();
+        stageLatency[stage.ordinal()].recordNanos(now - startNanos);
+        return now;
+    }
+
+    public LatencyHistogram getStageLatency(Stage stage) {
+        return stageLatency[stage.ordinal()];
+    }
+
+    public void processed(long startNanos, boolean error) {
+        processLatency.recordSince(startNanos);
+        requestsProcessed.incrementAndGet();
+        if (error) requestErrors.incrementAndGet();
+    }
+
+    /**
+     * @param receivedNanos {@link System#nanoTime()} when the request was received
+     */
+    public void responded(long receivedNanos, boolean sent) {
+        responseLatency.recordSince(receivedNanos);
+        if (!sent) responsesNotSent.incrementAndGet();
+    }
+
+    public void roomJoined(boolean success) {
+        if (success) roomJoins.incrementAndGet();
+        else roomJoinFailures.incrementAndGet();
+    }
+
+    public void roomLeft() { roomsLeft.incrementAndGet(); }
+
+    public void invited(boolean accepted) {
+        if (accepted) invitationsAccepted.incrementAndGet();
+        else invitationsIgnored.incrementAndGet();
+    }
+
+    @Override
+    public long getRequestsReceived() { return requestsReceived.get(); }
+
+    @Override
+    public long getRequestsDuplicated() { return requestsDuplicated.get(); }
+
+    @Override
+    public long getRequestsShed() { return requestsShed.get(); }
+
+    @Override
+    public long getRequestsDispatched() { return requestsDispatched.get(); }
+
+    @Override
+    public long getRequestsRejected() { return requestsRejected.get(); }
+
+    @Override
+    public long getRequestsProcessed() { return requestsProcessed.get(); }
+
+    @Override
+    public long getResponsesCached() { return responsesCached.get(); }
+
+    @Override
+    public long getRequestsCoalesced() { return requestsCoalesced.get(); }
+
+    @Override
+    public long getRequestErrors() { return requestErrors.get(); }
+
+    @Override
+    public long getRequestsTimedOut() { return requestsTimedOut.get(); }
+
+    @Override
+    public long getLateResponses() { return lateResponses.get(); }
+
+    @Override
+    public long getLateResponsesNotSent() { return lateResponsesNotSent.get(); }
+
+    @Override
+    public long getResponsesNotSent() { return responsesNotSent.get(); }
+
+    @Override
+    public long getRoomJoins() { return roomJoins.get(); }
+
+    @Override
+    public long getRoomJoinFailures() { return roomJoinFailures.get(); }
+
+    @Override
+    public long getRoomsLeft() { return roomsLeft.get(); }
+
+    @Override
+    public long getInvitationsAccepted() { return invitationsAccepted.get(); }
+
+    @Override
+    public long getInvitationsIgnored() { return invitationsIgnored.get(); }
+
+    @Override
+    public double getProcessLatencyP50Millis() { return processLatency.getPercentileMillis(50); }
+
+    @Override
+    public double getProcessLatencyP99Millis() { return processLatency.getPercentileMillis(99); }
+
+    @Override
+    public double getProcessLatencyMaxMillis() { return processLatency.getMaxMillis(); }
+
+    @Override
+    public double getResponseLatencyP50Millis() { return responseLatency.getPercentileMillis(50); }
+
+    @Override
+    public double getResponseLatencyP90Millis() { return responseLatency.getPercentileMillis(90); }
+
+    @Override
+    public double getResponseLatencyP99Millis() { return responseLatency.getPercentileMillis(99); }
+
+    @Override
+    public double getResponseLatencyMaxMillis() { return responseLatency.getMaxMillis(); }
+
+    @Override
+    public double getFilterLatencyP50Millis() { return stageLatency[Stage.FILTER.ordinal()].getPercentileMillis(50); }
+
+    @Override
+    public double getFilterLatencyP99Millis() { return stageLatency[Stage.FILTER.ordinal()].getPercentileMillis(99); }
+
+    @Override
+    public double getParseLatencyP50Millis() { return stageLatency[Stage.PARSE.ordinal()].getPercentileMillis(50); }
+
+    @Override
+    public double getParseLatencyP99Millis() { return stageLatency[Stage.PARSE.ordinal()].getPercentileMillis(99); }
+
+    @Override
+    public double getAdmitLatencyP50Millis() { return stageLatency[Stage.ADMIT.ordinal()].getPercentileMillis(50); }
+
+    @Override
+    public double getAdmitLatencyP99Millis() { return stageLatency[Stage.ADMIT.ordinal()].getPercentileMillis(99); }
+
+    @Override
+    public double getDispatchLatencyP50Millis() { return stageLatency[Stage.DISPATCH.ordinal()].getPercentileMillis(50); }
+
+    @Override
+    public double getDispatchLatencyP99Millis() { return stageLatency[Stage.DISPATCH.ordinal()].getPercentileMillis(99); }
+
+    @Override
+    public double getHandleLatencyP50Millis() { return stageLatency[Stage.HANDLE.ordinal()].getPercentileMillis(50); }
+
+    @Override
+    public double getHandleLatencyP99Millis() { return stageLatency[Stage.HANDLE.ordinal()].getPercentileMillis(99); }
+
+    @Override
+    public double getRenderLatencyP50Millis() { return stageLatency[Stage.RENDER.ordinal()].getPercentileMillis(50); }
+
+    @Override
+    public double getRenderLatencyP99Millis() { return stageLatency[Stage.RENDER.ordinal()].getPercentileMillis(99); }
+
+    @Override
+    public double getSendLatencyP50Millis() { return stageLatency[Stage.SEND.ordinal()].getPercentileMillis(50); }
+
+    @Override
+    public double getSendLatencyP99Millis() { return stageLatency[Stage.SEND.ordinal()].getPercentileMillis(99); }
+
+    @Override
+    public void resetStatistics() {
+        processLatency.reset();
+        responseLatency.reset();
+        for (LatencyHistogram latency : stageLatency) {
+            latency.reset();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.labs2160.slacker.plugin.chat.xmpp.metrics;
+
+/**
+ * JMX view of a collector (HipChat, Slack).
+ */
+public interface CollectorMetricsMBean {
+
+    long getRequestsReceived();
+
+    long getRequestsDuplicated();
+
+    long getRequestsShed();
+
+    long getRequestsDispatched();
+
+    long getRequestsRejected();
+
+    long getRequestsProcessed();
+
+    long getResponsesCached();
+
+    long getRequestsCoalesced();
+
+    long getRequestErrors();
+
+    long getRequestsTimedOut();
+
+    long getLateResponses();
+
+    long getLateResponsesNotSent();
+
+    long getResponsesNotSent();
+
+    long getRoomJoins();
+
+    long getRoomJoinFailures();
+
+    long getRoomsLeft();
+
+    long getInvitationsAccepted();
+
+    long getInvitationsIgnored();
+
+    double getProcessLatencyP50Millis();
+
+    double getProcessLatencyP99Millis();
+
+    double getProcessLatencyMaxMillis();
+
+    double getResponseLatencyP50Millis();
+
+    double getResponseLatencyP90Millis();
+
+    double getResponseLatencyP99Millis();
+
+    double getResponseLatencyMaxMillis();
+
+    double getFilterLatencyP50Millis();
+
+    double getFilterLatencyP99Millis();
+
+    double getParseLatencyP50Millis();
+
+    double getParseLatencyP99Millis();
+
+    double getAdmitLatencyP50Millis();
+
+    double getAdmitLatencyP99Millis();
+
+    double getDispatchLatencyP50Millis();
+
+    double getDispatchLatencyP99Millis();
+
+    double getHandleLatencyP50Millis();
+
+    double getHandleLatencyP99Millis();
+
+    double getRenderLatencyP50Millis();
+
+    double getRenderLatencyP99Millis();
+
+    double getSendLatencyP50Millis();
+
+    double getSendLatencyP99Millis();
+
+    void resetStatistics();
+}
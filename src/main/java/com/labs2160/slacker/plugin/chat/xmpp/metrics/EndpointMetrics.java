@@ -0,0 +1,53 @@
+package com.labs2160.slacker.plugin.chat.xmpp.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latencies of an endpoint. The delivery latency covers all targets of one delivery.
+ */
+public class EndpointMetrics implements EndpointMetricsMBean {
+
+    private final AtomicLong deliveries = new AtomicLong();
+
+    private final AtomicLong incompleteDeliveries = new AtomicLong();
+
+    private final AtomicLong targetsDelivered = new AtomicLong();
+
+    private final AtomicLong targetsFailed = new AtomicLong();
+
+    private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+
+    public void delivered(long startNanos, int delivered, int failed) {
+        deliveryLatency.recordSince(startNanos);
+        deliveries.incrementAndGet();
+        if (failed > 0) incompleteDeliveries.incrementAndGet();
+        targetsDelivered.addAndGet(delivered);
+        targetsFailed.addAndGet(failed);
+    }
+
+    @Override
+    public long getDeliveries() { return deliveries.get(); }
+
+    @Override
+    public long getIncompleteDeliveries() { return incompleteDeliveries.get(); }
+
+    @Override
+    public long getTargetsDelivered() { return targetsDelivered.get(); }
+
+    @Override
+    public long getTargetsFailed() { return targetsFailed.get(); }
+
+    @Override
+    public double getDeliveryLatencyP50Millis() { return deliveryLatency.getPercentileMillis(50); }
+
+    @Override
+    public double getDeliveryLatencyP99Millis() { return deliveryLatency.getPercentileMillis(99); }
+
+    @Override
+    public double getDeliveryLatencyMaxMillis() { return deliveryLatency.getMaxMillis(); }
+
+    @Override
+    public void resetStatistics() {
+        deliveryLatency.reset();
+    }
+}
@@ -0,0 +1,23 @@
+package com.labs2160.slacker.plugin.chat.xmpp.metrics;
+
+/**
+ * JMX view of an endpoint.
+ */
+public interface EndpointMetricsMBean {
+
+    long getDeliveries();
+
+    long getIncompleteDeliveries();
+
+    long getTargetsDelivered();
+
+    long getTargetsFailed();
+
+    double getDeliveryLatencyP50Millis();
+
+    double getDeliveryLatencyP99Millis();
+
+    double getDeliveryLatencyMaxMillis();
+
+    void resetStatistics();
+}
@@ -0,0 +1,53 @@
+package com.labs2160.slacker.plugin.chat.xmpp.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Registers the metrics of this plugin with the platform MBean server, under
+ * <code>com.labs2160.slacker.plugin.chat.xmpp:type=&lt;type&gt;,name=&lt;name&gt;</code>.
+ * Failures are logged, never thrown - metrics must not keep the bot from running.
+ */
+public final class MBeans {
+
+    public final static String DOMAIN = "com.labs2160.slacker.plugin.chat.xmpp";
+
+    private final static Logger logger = LoggerFactory.getLogger(MBeans.class);
+
+    private MBeans() { }
+
+    /**
+     * @return the name it was registered under, or null if registration failed
+     */
+    public static ObjectName register(String type, String name, Object mbean) {
+        try {
+            final ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName); // e.g. a component that was reconfigured
+            }
+            server.registerMBean(mbean, objectName);
+            logger.debug("Registered MBean {}", objectName);
+            return objectName;
+        } catch (Exception e) {
+            logger.warn("Cannot register {} metrics for {} - {}", type, name, e.getMessage());
+            return null;
+        }
+    }
+
+    public static void unregister(ObjectName objectName) {
+        if (objectName == null) return;
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (Exception e) {
+            logger.warn("Cannot unregister MBean {} - {}", objectName, e.getMessage());
+        }
+    }
+}
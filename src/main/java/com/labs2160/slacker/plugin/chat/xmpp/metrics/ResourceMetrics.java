@@ -0,0 +1,188 @@
+package com.labs2160.slacker.plugin.chat.xmpp.metrics;
+
+import com.labs2160.slacker.plugin.chat.xmpp.XMPPResource;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latencies of an XMPPResource (summed over all of its connections),
+ * updated by the resource, its send queues and its keepalives.
+ */
+public class ResourceMetrics implements ResourceMetricsMBean {
+
+    private final XMPPResource resource;
+
+    private final AtomicLong connects = new AtomicLong();
+
+    private final AtomicLong connectFailures = new AtomicLong();
+
+    private final AtomicLong reconnects = new AtomicLong();
+
+    private final AtomicLong messagesQueued = new AtomicLong();
+
+    private final AtomicLong messagesRejected = new AtomicLong();
+
+    private final AtomicLong messagesSent = new AtomicLong();
+
+    private final AtomicLong sendFailures = new AtomicLong();
+
+    private final AtomicLong unsentDropped = new AtomicLong();
+
+    private final AtomicLong keepAlivesAnswered = new AtomicLong();
+
+    private final AtomicLong keepAlivesMissed = new AtomicLong();
+
+    private volatile long lastRoundTripMillis = -1;
+
+    /** bytes over the wire - after compression */
+    private final AtomicLong socketBytesReceived = new AtomicLong();
+
+    private final AtomicLong socketBytesSent = new AtomicLong();
+
+    /** bytes of the XML streams - before compression */
+    private final AtomicLong streamBytesReceived = new AtomicLong();
+
+    private final AtomicLong streamBytesSent = new AtomicLong();
+
+    /** time to write a stanza to the connection */
+    private final AtomicLong presencesReceived = new AtomicLong();
+
+    private final LatencyHistogram sendLatency = new LatencyHistogram();
+
+    private final LatencyHistogram roundTrip = new LatencyHistogram();
+
+    public ResourceMetrics(XMPPResource resource) {
+        this.resource = resource;
+    }
+
+    public void connected() { connects.incrementAndGet(); }
+
+    public void connectFailed() { connectFailures.incrementAndGet(); }
+
+    public void reconnected() { reconnects.incrementAndGet(); }
+
+    public void presenceReceived() { presencesReceived.incrementAndGet(); }
+
+    public void queued(boolean accepted) {
+        if (accepted) messagesQueued.incrementAndGet();
+        else messagesRejected.incrementAndGet();
+    }
+
+    public void sent(long startNanos) {
+        messagesSent.incrementAndGet();
+        sendLatency.recordSince(startNanos);
+    }
+
+    public void sendFailed() { sendFailures.incrementAndGet(); }
+
+    public void unsentDropped() { unsentDropped.incrementAndGet(); }
+
+    public void keepAliveAnswered(long roundTripNanos) {
+        keepAlivesAnswered.incrementAndGet();
+        roundTrip.recordNanos(roundTripNanos);
+        lastRoundTripMillis = roundTripNanos / 1000000;
+    }
+
+    public void keepAliveMissed() { keepAlivesMissed.incrementAndGet(); }
+
+    /**
+     * @param uncompressed true if the bytes are also the XML stream (the connection is not compressed)
+     */
+    public void socketRead(int bytes, boolean uncompressed) {
+        socketBytesReceived.addAndGet(bytes);
+        if (uncompressed) streamBytesReceived.addAndGet(bytes);
+    }
+
+    public void socketWritten(int bytes, boolean uncompressed) {
+        socketBytesSent.addAndGet(bytes);
+        if (uncompressed) streamBytesSent.addAndGet(bytes);
+    }
+
+    public void streamRead(int bytes) { streamBytesReceived.addAndGet(bytes); }
+
+    public void streamWritten(int bytes) { streamBytesSent.addAndGet(bytes); }
+
+    @Override
+    public boolean isConnected() { return resource.isConnected(); }
+
+    @Override
+    public boolean isAuthenticated() { return resource.isAuthenticated(); }
+
+    @Override
+    public long getConnects() { return connects.get(); }
+
+    @Override
+    public long getConnectFailures() { return connectFailures.get(); }
+
+    @Override
+    public long getReconnects() { return reconnects.get(); }
+
+    @Override
+    public long getMessagesQueued() { return messagesQueued.get(); }
+
+    @Override
+    public long getMessagesRejected() { return messagesRejected.get(); }
+
+    @Override
+    public long getMessagesSent() { return messagesSent.get(); }
+
+    @Override
+    public long getSendFailures() { return sendFailures.get(); }
+
+    @Override
+    public long getUnsentDropped() { return unsentDropped.get(); }
+
+    @Override
+    public int getSendQueuePending() { return resource.getSendQueuePending(); }
+
+    @Override
+    public double getSendLatencyP50Millis() { return sendLatency.getPercentileMillis(50); }
+
+    @Override
+    public double getSendLatencyP99Millis() { return sendLatency.getPercentileMillis(99); }
+
+    @Override
+    public double getSendLatencyMaxMillis() { return sendLatency.getMaxMillis(); }
+
+    @Override
+    public long getKeepAlivesAnswered() { return keepAlivesAnswered.get(); }
+
+    @Override
+    public long getKeepAlivesMissed() { return keepAlivesMissed.get(); }
+
+    @Override
+    public long getLastRoundTripMillis() { return lastRoundTripMillis; }
+
+    @Override
+    public double getRoundTripP99Millis() { return roundTrip.getPercentileMillis(99); }
+
+    @Override
+    public long getSocketBytesReceived() { return socketBytesReceived.get(); }
+
+    @Override
+    public long getSocketBytesSent() { return socketBytesSent.get(); }
+
+    @Override
+    public long getStreamBytesReceived() { return streamBytesReceived.get(); }
+
+    @Override
+    public long getStreamBytesSent() { return streamBytesSent.get(); }
+
+    @Override
+    public int getCompressedConnections() { return resource.getCompressedConnections(); }
+
+    @Override
+    public long getPresencesReceived() { return presencesReceived.get(); }
+
+    @Override
+    public int getRosterEntries() { return resource.getRosterEntries(); }
+
+    @Override
+    public int getPresencesCached() { return resource.getPresencesCached(); }
+
+    @Override
+    public void resetStatistics() {
+        sendLatency.reset();
+        roundTrip.reset();
+    }
+}
@@ -0,0 +1,64 @@
+package com.labs2160.slacker.plugin.chat.xmpp.metrics;
+
+/**
+ * JMX view of an XMPPResource (one connection).
+ */
+public interface ResourceMetricsMBean {
+
+    boolean isConnected();
+
+    boolean isAuthenticated();
+
+    long getConnects();
+
+    long getConnectFailures();
+
+    long getReconnects();
+
+    long getMessagesQueued();
+
+    long getMessagesRejected();
+
+    long getMessagesSent();
+
+    long getSendFailures();
+
+    long getUnsentDropped();
+
+    int getSendQueuePending();
+
+    double getSendLatencyP50Millis();
+
+    double getSendLatencyP99Millis();
+
+    double getSendLatencyMaxMillis();
+
+    long getKeepAlivesAnswered();
+
+    long getKeepAlivesMissed();
+
+    long getLastRoundTripMillis();
+
+    double getRoundTripP99Millis();
+
+    long getSocketBytesReceived();
+
+    long getSocketBytesSent();
+
+    long getStreamBytesReceived();
+
+    long getStreamBytesSent();
+
+    int getCompressedConnections();
+
+    long getPresencesReceived();
+
+    int getRosterEntries();
+
+    /**
+     * @return -1 while the roster keeps the presences
+     */
+    int getPresencesCached();
+
+    void resetStatistics();
+}
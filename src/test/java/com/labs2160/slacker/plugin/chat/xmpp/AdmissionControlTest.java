@@ -0,0 +1,48 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import org.junit.Test;
+
+import static com.labs2160.slacker.plugin.chat.xmpp.AdmissionControl.Result.*;
+import static org.junit.Assert.*;
+
+public class AdmissionControlTest {
+
+    @Test
+    public void testUnlimited() {
+        AdmissionControl admission = new AdmissionControl(0, 1, 0, 1, 0);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(ADMITTED, admission.tryAcquire("alice@host", "room"));
+        }
+        assertEquals(100, admission.getInFlight());
+    }
+
+    @Test
+    public void testSenderLimit() {
+        AdmissionControl admission = new AdmissionControl(0.01, 2, 0, 1, 0);
+        assertEquals(ADMITTED, admission.tryAcquire("alice@host", null));
+        assertEquals(ADMITTED, admission.tryAcquire("alice@host", null));
+        assertEquals(SENDER_LIMITED, admission.tryAcquire("alice@host", null));
+        assertEquals(ADMITTED, admission.tryAcquire("bob@host", null));
+    }
+
+    @Test
+    public void testRoomLimit() {
+        AdmissionControl admission = new AdmissionControl(0, 1, 0.01, 2, 0);
+        assertEquals(ADMITTED, admission.tryAcquire("room@conf/alice", "room"));
+        assertEquals(ADMITTED, admission.tryAcquire("room@conf/bob", "room"));
+        assertEquals(ROOM_LIMITED, admission.tryAcquire("room@conf/carol", "room"));
+        assertEquals(ADMITTED, admission.tryAcquire("other@conf/carol", "other"));
+        assertEquals("chats are not limited by room", ADMITTED, admission.tryAcquire("carol@host", null));
+    }
+
+    @Test
+    public void testInFlightLimit() {
+        AdmissionControl admission = new AdmissionControl(0, 1, 0, 1, 2);
+        assertEquals(ADMITTED, admission.tryAcquire("alice@host", null));
+        assertEquals(ADMITTED, admission.tryAcquire("bob@host", null));
+        assertEquals(OVERLOADED, admission.tryAcquire("carol@host", null));
+        assertEquals(2, admission.getInFlight());
+        admission.release();
+        assertEquals(ADMITTED, admission.tryAcquire("carol@host", null));
+    }
+}
@@ -0,0 +1,45 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ConsistentHashTest {
+
+    @Test
+    public void testSingleNode() {
+        assertEquals(0, new ConsistentHash(1).nodeFor("room@conf.hipchat.com"));
+    }
+
+    @Test
+    public void testStableAndBalanced() {
+        ConsistentHash hash = new ConsistentHash(4);
+        int [] counts = new int[4];
+        for (int i = 0; i < 4000; i++) {
+            final String room = "1234_room" + i + "@conf.hipchat.com";
+            final int node = hash.nodeFor(room);
+            assertEquals(node, new ConsistentHash(4).nodeFor(room));
+            counts[node]++;
+        }
+        for (int count : counts) {
+            assertTrue("uneven distribution: " + count, count > 500 && count < 1500);
+        }
+    }
+
+    @Test
+    public void testAddingNodeMovesFewKeys() {
+        ConsistentHash four = new ConsistentHash(4);
+        ConsistentHash five = new ConsistentHash(5);
+        int moved = 0;
+        for (int i = 0; i < 4000; i++) {
+            final String room = "1234_room" + i + "@conf.hipchat.com";
+            final int before = four.nodeFor(room);
+            final int after = five.nodeFor(room);
+            if (before != after) {
+                assertEquals("keys only move to the new node", 4, after);
+                moved++;
+            }
+        }
+        assertTrue("moved " + moved, moved < 4000 / 3);
+    }
+}
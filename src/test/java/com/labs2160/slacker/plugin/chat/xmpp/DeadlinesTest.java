@@ -0,0 +1,142 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+public class DeadlinesTest {
+
+    private Deadlines deadlines;
+
+    private final BlockingQueue<String> followUps = new LinkedBlockingQueue<>();
+
+    private final Deadlines.FollowUp<String> followUp = new Deadlines.FollowUp<String>() {
+        @Override
+        public void send(String result) {
+            followUps.add(result);
+        }
+    };
+
+    @After
+    public void after() {
+        if (deadlines != null) deadlines.shutdown();
+    }
+
+    @Test
+    public void testTimeouts() {
+        deadlines = new Deadlines("test-late", 1000, "build:600000, build status:5000, ping", 0);
+        assertEquals(1000, deadlines.timeoutOf(new String[] {"deploy"}));
+        assertEquals(600000, deadlines.timeoutOf(new String[] {"BUILD", "web"}));
+        assertEquals("longest command wins", 5000, deadlines.timeoutOf(new String[] {"build", "status"}));
+        assertEquals(1000, deadlines.timeoutOf(new String[] {"ping"}));
+        assertEquals(0, new Deadlines("test-late", 0, "", 0).timeoutOf(new String[] {"deploy"}));
+    }
+
+    @Test
+    public void testInTime() throws Exception {
+        deadlines = new Deadlines("test-late", 1000, "", 0);
+        assertEquals("done", deadlines.await(new String[] {"ping"}, slow("done", 0), followUp));
+    }
+
+    @Test
+    public void testCancelled() throws Exception {
+        deadlines = new Deadlines("test-late", 0, "build:50", 0);
+        final FutureTask<String> result = slow("done", 5000);
+        try {
+            deadlines.await(new String[] {"build"}, result, followUp);
+            fail("deadline passed");
+        } catch (TimeoutException e) {
+            assertTrue(result.isCancelled());
+        }
+    }
+
+    @Test
+    public void testLateResponse() throws Exception {
+        deadlines = new Deadlines("test-late", 50, "", 5000);
+        assertTrue(deadlines.isLateResponseEnabled());
+        final FutureTask<String> result = slow("done", 200);
+        try {
+            deadlines.await(new String[] {"build"}, result, followUp);
+            fail("deadline passed");
+        } catch (TimeoutException e) {
+            assertTrue(e instanceof Deadlines.LateResponseException);
+            assertTrue(e.getCause() instanceof TimeoutException);
+            assertFalse(result.isCancelled());
+        }
+        assertEquals("done", followUps.poll(5, TimeUnit.SECONDS));
+
+        try {
+            deadlines.await(new String[] {"build"}, slow("dropped", 5000), null);
+            fail("deadline passed");
+        } catch (TimeoutException e) {
+            assertFalse(e instanceof Deadlines.LateResponseException);
+            assertNull("no follow-up, no late response", followUps.poll(100, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test
+    public void testTooManyLateResponses() throws Exception {
+        deadlines = new Deadlines("test-late", 10, "", 5000);
+        for (int i = 0; i < Deadlines.MAX_LATE_WATCHERS; i++) {
+            try {
+                deadlines.await(new String[] {"build"}, slow("late", 5000), followUp);
+                fail("deadline passed");
+            } catch (Deadlines.LateResponseException e) {
+                // watched
+            }
+        }
+        final FutureTask<String> result = slow("dropped", 5000);
+        try {
+            deadlines.await(new String[] {"build"}, result, followUp);
+            fail("deadline passed");
+        } catch (TimeoutException e) {
+            assertFalse("no watcher left, no late response", e instanceof Deadlines.LateResponseException);
+            assertTrue(result.isCancelled());
+        }
+    }
+
+    @Test
+    public void testLateResponseGivenUp() throws Exception {
+        deadlines = new Deadlines("test-late", 50, "", 50);
+        final FutureTask<String> result = slow("done", 5000);
+        try {
+            deadlines.await(new String[] {"build"}, result, followUp);
+            fail("deadline passed");
+        } catch (TimeoutException e) {
+            // watched a while longer, then cancelled
+        }
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!result.isCancelled() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(result.isCancelled());
+        assertTrue(followUps.isEmpty());
+    }
+
+    /**
+     * @return runs in the background, like the future of an action
+     */
+    private FutureTask<String> slow(final String value, final long delayMillis) throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final FutureTask<String> result = new FutureTask<>(new Callable<String>() {
+            @Override
+            public String call() throws InterruptedException {
+                started.countDown();
+                Thread.sleep(delayMillis);
+                return value;
+            }
+        });
+        new Thread(result).start();
+        started.await();
+        return result;
+    }
+}
@@ -0,0 +1,65 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DuplicateFilterTest {
+
+    private static Message parse(String xml) throws Exception {
+        return (Message) PacketParserUtils.parseStanza(xml);
+    }
+
+    @Test
+    public void testSameIdIsDuplicate() throws Exception {
+        DuplicateFilter filter = new DuplicateFilter(60000, 100);
+        final String xml = "<message id='m1' from='room@conf/alice' type='groupchat'><body>bot deploy</body></message>";
+        assertFalse(filter.isDuplicate(parse(xml)));
+        assertTrue(filter.isDuplicate(parse(xml)));
+        assertFalse("same id from another sender",
+                filter.isDuplicate(parse(xml.replace("alice", "bob"))));
+    }
+
+    @Test
+    public void testWithoutId() throws Exception {
+        DuplicateFilter filter = new DuplicateFilter(60000, 100);
+        final String plain = "<message from='alice@host/desk' type='chat'><body>deploy</body></message>";
+        assertFalse(filter.isDuplicate(parse(plain)));
+        assertFalse("a repeated request cannot be told apart without id or timestamp", filter.isDuplicate(parse(plain)));
+
+        final String delayed = "<message from='alice@host/desk' type='chat'><body>deploy</body>"
+                + "<delay xmlns='urn:xmpp:delay' stamp='2015-03-01T10:00:00Z'/></message>";
+        assertFalse(filter.isDuplicate(parse(delayed)));
+        assertTrue(filter.isDuplicate(parse(delayed)));
+        assertFalse(filter.isDuplicate(parse(delayed.replace("deploy", "restart"))));
+    }
+
+    @Test
+    public void testWindow() {
+        DuplicateFilter filter = new DuplicateFilter(1000, 100);
+        assertFalse(filter.isDuplicate("a", 0));
+        assertTrue(filter.isDuplicate("a", 999));
+        assertFalse("forgotten after the window", filter.isDuplicate("a", 1000));
+        assertEquals(1, filter.size());
+    }
+
+    @Test
+    public void testCapacity() {
+        DuplicateFilter filter = new DuplicateFilter(60000, 10);
+        for (int i = 0; i < 100; i++) {
+            assertFalse(filter.isDuplicate("m" + i, i));
+        }
+        assertEquals(10, filter.size());
+        assertTrue(filter.isDuplicate("m99", 100));
+        assertFalse("oldest are forgotten first", filter.isDuplicate("m0", 100));
+    }
+
+    @Test
+    public void testDisabled() {
+        DuplicateFilter filter = new DuplicateFilter(0, 10);
+        assertFalse(filter.isDuplicate("a", 0));
+        assertFalse(filter.isDuplicate("a", 1));
+    }
+}
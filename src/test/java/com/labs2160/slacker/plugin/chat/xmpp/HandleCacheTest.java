@@ -0,0 +1,141 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class HandleCacheTest {
+
+    private final AtomicInteger created = new AtomicInteger();
+
+    private final List<String> removed = new CopyOnWriteArrayList<>();
+
+    private HandleCache<String, String> cache(int maxSize, long idleTimeout) {
+        return new HandleCache<>(new HandleCache.Factory<String, String>() {
+            @Override
+            public String create(String key) {
+                created.incrementAndGet();
+                return "handle-" + key;
+            }
+        }, new HandleCache.RemovalListener<String, String>() {
+            @Override
+            public void removed(String key, String value) {
+                removed.add(key);
+            }
+        }, maxSize, idleTimeout);
+    }
+
+    @Test
+    public void testCreatedOnce() throws Exception {
+        final HandleCache<String, String> cache = cache(0, 0);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        final CountDownLatch go = new CountDownLatch(1);
+        final List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            results.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    go.await();
+                    return cache.get("room@conf");
+                }
+            }));
+        }
+        go.countDown();
+        for (Future<String> result : results) {
+            assertEquals("handle-room@conf", result.get(5, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+        assertEquals(1, created.get());
+        assertEquals("handle-room@conf", cache.getIfPresent("room@conf"));
+    }
+
+    @Test
+    public void testSizeBound() {
+        final HandleCache<String, String> cache = cache(8, 0);
+        for (int i = 0; i < 100; i++) {
+            cache.get("person" + i);
+            cache.get("person0"); // keep the first one in use
+        }
+        assertTrue(cache.size() <= 8);
+        assertNotNull("recently used handles are kept", cache.getIfPresent("person0"));
+        assertNull(cache.getIfPresent("person1"));
+        assertEquals(cache.getEvictions(), removed.size());
+        assertEquals(100 - cache.size(), removed.size());
+    }
+
+    @Test
+    public void testIdleEviction() throws InterruptedException {
+        final HandleCache<String, String> cache = cache(0, 50);
+        cache.get("idle");
+        Thread.sleep(100);
+        cache.get("busy");
+        assertNull(cache.getIfPresent("idle"));
+        assertEquals("[idle]", removed.toString());
+        assertEquals("handle-idle", cache.get("idle"));
+        assertEquals(3, created.get());
+    }
+
+    @Test
+    public void testFailedCreationIsRetried() {
+        final AtomicInteger attempts = new AtomicInteger();
+        final HandleCache<String, String> cache = new HandleCache<>(new HandleCache.Factory<String, String>() {
+            @Override
+            public String create(String key) {
+                if (attempts.incrementAndGet() == 1) throw new IllegalStateException("not connected");
+                return key;
+            }
+        }, null, 0, 0);
+        try {
+            cache.get("x");
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals(0, cache.size());
+        }
+        assertEquals("x", cache.get("x"));
+    }
+
+    @Test
+    public void testEvictedWhileCreated() throws Exception {
+        final CountDownLatch creating = new CountDownLatch(1);
+        final CountDownLatch evicted = new CountDownLatch(1);
+        final HandleCache<String, String> cache = new HandleCache<>(new HandleCache.Factory<String, String>() {
+            @Override
+            public String create(String key) {
+                if (created.incrementAndGet() == 1) {
+                    creating.countDown();
+                    try {
+                        evicted.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                return "handle-" + key + "-" + created.get();
+            }
+        }, new HandleCache.RemovalListener<String, String>() {
+            @Override
+            public void removed(String key, String value) {
+                removed.add(value);
+            }
+        }, 0, 0);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final Future<String> result = executor.submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return cache.get("room@conf");
+            }
+        });
+        creating.await();
+        cache.invalidate("room@conf");
+        evicted.countDown();
+
+        assertEquals("a live handle is returned", "handle-room@conf-2", result.get(5, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertEquals("the handle created after eviction is released", "[handle-room@conf-1]", removed.toString());
+        assertEquals("handle-room@conf-2", cache.getIfPresent("room@conf"));
+    }
+}
@@ -0,0 +1,150 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Stanza;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OutboundQueueTest {
+
+    private final List<String> sent = Collections.synchronizedList(new ArrayList<String>());
+
+    private OutboundQueue queue;
+
+    @After
+    public void after() {
+        queue.shutdown(0);
+    }
+
+    @Test
+    public void testRejectWhenFull() {
+        queue = createQueue(2, OutboundQueue.OverflowPolicy.REJECT); // not started, so nothing drains
+        assertTrue(queue.offer("a", message("a", "1")));
+        assertTrue(queue.offer("a", message("a", "2")));
+        assertFalse(queue.offer("b", message("b", "3")));
+        assertEquals(2, queue.getPendingCount());
+    }
+
+    @Test
+    public void testDropOldestWhenFull() throws InterruptedException {
+        queue = createQueue(2, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        queue.offer("a", message("a", "1"));
+        queue.offer("a", message("a", "2"));
+        assertTrue(queue.offer("b", message("b", "3")));
+        queue.start();
+        waitUntilSent(2);
+        assertEquals(2, sent.size());
+        assertTrue(sent.contains("a:2"));
+        assertTrue(sent.contains("b:3"));
+    }
+
+    @Test
+    public void testDropOldestDropsSplitMessageWhole() throws InterruptedException {
+        queue = createQueue(4, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        assertTrue(queue.offer("a", Arrays.asList(message("a", "1"), message("a", "2"), message("a", "3")), true));
+        assertTrue(queue.offer("b", message("b", "4")));
+        assertTrue(queue.offer("c", message("c", "5")));
+        assertEquals(2, queue.getPendingCount());
+        queue.start();
+        waitUntilSent(2);
+        assertEquals(Arrays.asList("b:4", "c:5"), sent);
+    }
+
+    @Test
+    public void testDropOldestKeepsPartlySentMessage() throws InterruptedException {
+        final CountDownLatch sending = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        queue = new OutboundQueue("test-sender", new OutboundQueue.StanzaSender() {
+            @Override
+            public boolean send(Stanza stanza) {
+                if ("a:2".equals(stanza.getTo() + ":" + ((Message) stanza).getBody())) {
+                    sending.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        return false;
+                    }
+                }
+                sent.add(stanza.getTo() + ":" + ((Message) stanza).getBody());
+                return true;
+            }
+        }, 3, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        queue.offer("a", Arrays.asList(message("a", "1"), message("a", "2"), message("a", "3")), true);
+        queue.start();
+        assertTrue(sending.await(5, TimeUnit.SECONDS));
+        assertTrue(queue.offer("b", message("b", "4")));
+        assertTrue(queue.offer("c", message("c", "5")));
+        assertTrue(queue.offer("d", message("d", "6"))); // drops b:4, not the rest of the message to a
+        release.countDown();
+        waitUntilSent(5);
+        assertEquals(Arrays.asList("a:1", "a:2", "a:3", "c:5", "d:6"), sent);
+    }
+
+    @Test
+    public void testBusyDestinationDoesNotStarveOthers() throws InterruptedException {
+        queue = createQueue(100, OutboundQueue.OverflowPolicy.REJECT);
+        queue.setDestinationRateLimit(1, 1); // one message per second per destination
+        for (int i = 0; i < 10; i++) {
+            queue.offer("busy", message("busy", "" + i));
+        }
+        queue.offer("quiet", message("quiet", "x"));
+        queue.start();
+        waitUntilSent(2);
+        assertTrue(sent.contains("quiet:x"));
+        assertTrue(queue.getPendingCount() >= 8);
+    }
+
+    @Test
+    public void testNoBlockingWhenNotAllowed() {
+        queue = createQueue(1, OutboundQueue.OverflowPolicy.BLOCK);
+        queue.setBlockTimeoutMillis(5000);
+        assertTrue(queue.offer("a", message("a", "1")));
+        final long begin = System.currentTimeMillis();
+        assertFalse(queue.offer("a", message("a", "2"), false));
+        assertTrue("did not wait for room", System.currentTimeMillis() - begin < 1000);
+    }
+
+    @Test
+    public void testNothingTakenAfterShutdown() throws InterruptedException {
+        queue = createQueue(10, OutboundQueue.OverflowPolicy.REJECT);
+        queue.start();
+        queue.shutdown(0);
+        queue.start();
+        assertFalse("not restarted", queue.isRunning());
+        assertFalse(queue.offer("a", message("a", "1")));
+        assertEquals(0, queue.getPendingCount());
+    }
+
+    private OutboundQueue createQueue(int capacity, OutboundQueue.OverflowPolicy policy) {
+        return new OutboundQueue("test-sender", new OutboundQueue.StanzaSender() {
+            @Override
+            public boolean send(Stanza stanza) {
+                sent.add(stanza.getTo() + ":" + ((Message) stanza).getBody());
+                return true;
+            }
+        }, capacity, policy);
+    }
+
+    private void waitUntilSent(int count) throws InterruptedException {
+        for (int i = 0; i < 100 && sent.size() < count; i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static Message message(String to, String body) {
+        Message msg = new Message(to);
+        msg.setBody(body);
+        return msg;
+    }
+}
@@ -0,0 +1,56 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import com.labs2160.slacker.api.response.TextOutput;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smackx.xhtmlim.packet.XHTMLExtension;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class OutputUtilTest {
+
+    @Test
+    public void testPlainTextToJabberHtml() {
+        assertEquals("<html xmlns='http://jabber.org/protocol/xhtml-im'><body xmlns='http://www.w3.org/1999/xhtml'><p>"
+                + "a &lt;b&gt; &amp; &quot;c&quot;<br/>d<br/>e</p></body></html>",
+                OutputUtil.plainTextToJabberHtml("a <b> & \"c\"\nd\r\ne"));
+    }
+
+    @Test
+    public void testResponseMessage() {
+        Message msg = OutputUtil.createResponseMessage(new TextOutput("line 1\nline 2"));
+        assertEquals("line 1\nline 2", msg.getBody());
+        XHTMLExtension xhtml = (XHTMLExtension) msg.getExtension(XHTMLExtension.ELEMENT, XHTMLExtension.NAMESPACE);
+        assertEquals(OutputUtil.plainTextToJabberHtml("line 1\nline 2"), xhtml.getBodies().get(0));
+    }
+
+    @Test
+    public void testShortMessagesAreCached() {
+        assertSame(OutputUtil.createTextMessage("(shrug) huh?"), OutputUtil.createTextMessage("(shrug) huh?"));
+
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            large.append("line ").append(i).append('\n');
+        }
+        assertNotSame(OutputUtil.createTextMessage(large.toString()), OutputUtil.createTextMessage(large.toString()));
+    }
+
+    @Test
+    public void testSplitOnLines() {
+        assertEquals(Arrays.asList("short"), OutputUtil.split("short", 10));
+        assertEquals(Arrays.asList("aaaa\nbbbb", "cccc"), OutputUtil.split("aaaa\nbbbb\ncccc", 10));
+        assertEquals(Arrays.asList("aaaa", "bbbb", "cccc"), OutputUtil.split("aaaa\r\nbbbb\r\ncccc", 6));
+        assertEquals(Arrays.asList("aaaa\nbbbb\ncccc"), OutputUtil.split("aaaa\nbbbb\ncccc", 0));
+    }
+
+    @Test
+    public void testSplitLongLines() {
+        assertEquals(Arrays.asList("aaaaa", "aaaaa", "aa\nbb"), OutputUtil.split("aaaaaaaaaaaa\nbb", 5));
+        assertEquals("surrogate pairs are not cut", Arrays.asList("aa", "\uD83D\uDE00a"),
+                OutputUtil.split("aa\uD83D\uDE00a", 3));
+    }
+}
@@ -0,0 +1,52 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PagerTest {
+
+    private static final String REPORT = "line 1\nline 2\nline 3\nline 4\nline 5";
+
+    @Test
+    public void testDisabled() {
+        Pager pager = new Pager(0, 60000, "bot more");
+        assertFalse(pager.isEnabled());
+        assertSame(REPORT, pager.firstPage("room@conf", REPORT));
+        assertNull(pager.nextPage("room@conf"));
+    }
+
+    @Test
+    public void testShortTextIsNotPaged() {
+        Pager pager = new Pager(100, 60000, "bot more");
+        assertSame(REPORT, pager.firstPage("room@conf", REPORT));
+        assertNull(pager.nextPage("room@conf"));
+    }
+
+    @Test
+    public void testPages() {
+        Pager pager = new Pager(13, 60000, "bot more");
+        assertEquals("line 1\nline 2\n[page 1 of 3 - type \"bot more\" for the next page]",
+                pager.firstPage("room@conf", REPORT));
+        assertNull("pages are kept per conversation", pager.nextPage("alice@host"));
+        assertEquals("line 3\nline 4\n[page 2 of 3 - type \"bot more\" for the next page]", pager.nextPage("room@conf"));
+        assertEquals("line 5", pager.nextPage("room@conf"));
+        assertNull(pager.nextPage("room@conf"));
+    }
+
+    @Test
+    public void testNewResponseReplacesRemainder() {
+        Pager pager = new Pager(13, 60000, "more");
+        pager.firstPage("room@conf", REPORT);
+        pager.firstPage("room@conf", "other 1\nother 2");
+        assertEquals("other 2", pager.nextPage("room@conf"));
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        Pager pager = new Pager(13, 50, "more");
+        pager.firstPage("room@conf", REPORT);
+        Thread.sleep(80);
+        assertNull(pager.nextPage("room@conf"));
+    }
+}
@@ -0,0 +1,57 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import org.jivesoftware.smack.XMPPConnection;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReconnectManagerTest {
+
+    @Test
+    public void testDelayIsCappedAndJittered() {
+        ReconnectManager manager = new ReconnectManager("test-reconnect", null, null, 100, 1000);
+        try {
+            for (int attempt = 0; attempt < 40; attempt++) {
+                long ceiling = Math.min(1000, 100L << Math.min(attempt, 30));
+                long delay = manager.nextDelayMillis(attempt);
+                assertTrue(delay >= 0 && delay <= ceiling);
+            }
+        } finally {
+            manager.shutdown();
+        }
+    }
+
+    @Test
+    public void testRetriesUntilConnectedThenNotifies() throws InterruptedException {
+        final AtomicInteger attempts = new AtomicInteger();
+        final CountDownLatch reconnected = new CountDownLatch(1);
+        final ReconnectManager manager = new ReconnectManager("test-reconnect", null, new ReconnectManager.Reconnector() {
+            @Override
+            public void reconnect() throws Exception {
+                if (attempts.incrementAndGet() < 3) throw new IOException("server unavailable");
+            }
+        }, 1, 5);
+        manager.addListener(new ReconnectManager.Listener() {
+            @Override
+            public void reconnected(XMPPConnection connection) {
+                reconnected.countDown();
+            }
+        });
+        try {
+            manager.reconnect();
+            manager.reconnect(); // already in progress - ignored
+            assertTrue(reconnected.await(5, TimeUnit.SECONDS));
+            assertEquals(3, attempts.get());
+            assertFalse(manager.isReconnecting());
+        } finally {
+            manager.shutdown();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RequestMatcherTest {
+
+    private final RequestMatcher matcher = new RequestMatcher(Arrays.asList("@spidey", "@spiderman", " spidey "));
+
+    @Test
+    public void testIsAddressed() {
+        assertTrue(matcher.isAddressed("@spidey status"));
+        assertTrue(matcher.isAddressed("@Spiderman status"));
+        assertTrue(matcher.isAddressed("spidey: status"));
+        assertTrue(matcher.isAddressed("  @spidey"));
+        assertFalse(matcher.isAddressed("@spideyfan status"));
+        assertFalse(matcher.isAddressed("hey @spidey status"));
+        assertFalse(matcher.isAddressed("@spid"));
+        assertFalse(matcher.isAddressed(""));
+        assertFalse(matcher.isAddressed(null));
+    }
+
+    @Test
+    public void testTokenize() {
+        assertArrayEquals(new String[] {"deploy", "app", "prod"}, matcher.tokenize("@spidey  deploy\tapp prod "));
+        assertArrayEquals(new String[] {"deploy", "app"}, matcher.tokenize("@spiderman: deploy app"));
+        assertArrayEquals(new String[] {"deploy", "app"}, matcher.tokenize("deploy app")); // direct message
+        assertArrayEquals(new String[0], matcher.tokenize("@spidey"));
+        assertArrayEquals(new String[0], matcher.tokenize("   "));
+    }
+
+    @Test
+    public void testKeys() {
+        final String [] tokens = {"Deploy", "Foo", "", "prod"};
+        assertEquals("deploy foo prod", RequestMatcher.normalize(tokens));
+        assertEquals("arguments keep their case", "deploy Foo prod", RequestMatcher.exact(tokens));
+
+        final CommandTable commands = new CommandTable("status, build status", 0);
+        assertTrue(commands.matches("status"));
+        assertTrue(commands.matches("build status web"));
+        assertFalse(commands.matches("build"));
+        assertFalse(commands.matches("statuses"));
+    }
+}
@@ -0,0 +1,60 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import org.jivesoftware.smack.packet.Message;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ResponseCacheTest {
+
+    @Test
+    public void testDisabled() {
+        ResponseCache cache = new ResponseCache("", 60000, 10);
+        assertFalse(cache.isEnabled());
+        cache.put(new String[] {"status"}, OutputUtil.createTextMessage("ok"));
+        assertNull(cache.get(new String[] {"status"}));
+    }
+
+    @Test
+    public void testAllowlist() {
+        ResponseCache cache = new ResponseCache("status:30000, oncall, build status:0", 60000, 10);
+        assertEquals(30000, cache.ttlOf("status"));
+        assertEquals(30000, cache.ttlOf("status web"));
+        assertEquals(0, cache.ttlOf("statusx"));
+        assertEquals(60000, cache.ttlOf("oncall"));
+        assertEquals("longest command wins", 0, cache.ttlOf("build status 12"));
+        assertEquals(0, cache.ttlOf("deploy"));
+    }
+
+    @Test
+    public void testNormalizedKey() {
+        ResponseCache cache = new ResponseCache("Status", 60000, 10);
+        final Message response = OutputUtil.createTextMessage("all good");
+        cache.put(new String[] {"status", "Web"}, response);
+        assertSame(response, cache.get(new String[] {"STATUS", "web"}));
+        assertNull(cache.get(new String[] {"status"}));
+        cache.put(new String[] {"deploy"}, response);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        ResponseCache cache = new ResponseCache("status:50", 60000, 10);
+        cache.put(new String[] {"status"}, OutputUtil.createTextMessage("ok"));
+        assertNotNull(cache.get(new String[] {"status"}));
+        Thread.sleep(80);
+        assertNull(cache.get(new String[] {"status"}));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testSizeBound() {
+        ResponseCache cache = new ResponseCache("status", 60000, 3);
+        for (int i = 0; i < 10; i++) {
+            cache.put(new String[] {"status", "host" + i}, OutputUtil.createTextMessage("ok " + i));
+        }
+        assertEquals(3, cache.size());
+        assertNotNull(cache.get(new String[] {"status", "host9"}));
+        assertNull(cache.get(new String[] {"status", "host0"}));
+    }
+}
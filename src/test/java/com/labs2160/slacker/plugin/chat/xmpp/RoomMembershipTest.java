@@ -0,0 +1,48 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class RoomMembershipTest {
+
+    @Test
+    public void testEmptyAllowlistAcceptsAll() {
+        RoomMembership membership = new RoomMembership("test", "", 0);
+        assertTrue(membership.isInviteAllowed("1234_any@conf.hipchat.com", "1234_5@chat.hipchat.com/bot"));
+    }
+
+    @Test
+    public void testAllowlist() {
+        RoomMembership membership = new RoomMembership("test", "1234_ops*, *@chat.example.com", 0);
+        assertTrue(membership.isInviteAllowed("1234_ops_alerts@conf.hipchat.com", "someone@chat.hipchat.com"));
+        assertTrue(membership.isInviteAllowed("1234_OPS@conf.hipchat.com", null));
+        assertTrue(membership.isInviteAllowed("1234_random@conf.hipchat.com", "admin@chat.example.com/desktop"));
+        assertFalse(membership.isInviteAllowed("1234_random@conf.hipchat.com", "someone@chat.hipchat.com"));
+    }
+
+    @Test
+    public void testIdleRooms() {
+        RoomMembership membership = new RoomMembership("test", "", 1000);
+        membership.pin("configured");
+        membership.touch("configured");
+        membership.touch("invited1");
+        membership.touch("invited2");
+        final long now = System.currentTimeMillis();
+        assertEquals(Collections.emptyList(), membership.takeIdleRooms(now));
+
+        membership.forget("invited2");
+        assertEquals(Arrays.asList("invited1"), membership.takeIdleRooms(now + 1000));
+        assertEquals("idle rooms are only returned once", Collections.emptyList(), membership.takeIdleRooms(now + 2000));
+    }
+
+    @Test
+    public void testNoIdleTimeout() {
+        RoomMembership membership = new RoomMembership("test", "", 0);
+        membership.touch("invited");
+        assertEquals(Collections.emptyList(), membership.takeIdleRooms(Long.MAX_VALUE));
+    }
+}
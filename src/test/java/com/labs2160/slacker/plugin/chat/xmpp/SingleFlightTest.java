@@ -0,0 +1,85 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SingleFlightTest {
+
+    private final SingleFlight<String, String> inFlight = new SingleFlight<>();
+
+    @Test
+    public void testConcurrentCallsShareOneExecution() throws Exception {
+        final AtomicInteger executions = new AtomicInteger();
+        final CountDownLatch joined = new CountDownLatch(8);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<String> work = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                executions.incrementAndGet();
+                release.await();
+                return "result";
+            }
+        };
+        final AtomicInteger shared = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        final List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    final SingleFlight.Call<String> call = inFlight.join("status", work);
+                    if (call.isShared()) shared.incrementAndGet();
+                    joined.countDown();
+                    return call.get();
+                }
+            }));
+        }
+        assertTrue(joined.await(5, TimeUnit.SECONDS));
+        release.countDown();
+        for (Future<String> result : results) {
+            assertEquals("result", result.get(5, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+        assertEquals(1, executions.get());
+        assertEquals(7, shared.get());
+        assertEquals("nothing kept once done", 0, inFlight.size());
+    }
+
+    @Test
+    public void testResultNotReused() throws Exception {
+        final AtomicInteger executions = new AtomicInteger();
+        final Callable<String> work = new Callable<String>() {
+            @Override
+            public String call() {
+                return "run " + executions.incrementAndGet();
+            }
+        };
+        assertEquals("run 1", inFlight.join("status", work).get());
+        final SingleFlight.Call<String> call = inFlight.join("status", work);
+        assertFalse(call.isShared());
+        assertEquals("run 2", call.get());
+    }
+
+    @Test
+    public void testExceptionIsShared() throws Exception {
+        final SingleFlight.Call<String> call = inFlight.join("deploy", new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                throw new IllegalStateException("backend down");
+            }
+        });
+        try {
+            call.get();
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("backend down", e.getMessage());
+        }
+        assertEquals(0, inFlight.size());
+    }
+}
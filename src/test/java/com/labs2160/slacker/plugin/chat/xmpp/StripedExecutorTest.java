@@ -0,0 +1,174 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StripedExecutorTest {
+
+    private StripedExecutor executor;
+
+    @Before
+    public void before() {
+        executor = new StripedExecutor("test", 4, 1000);
+    }
+
+    @After
+    public void after() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void testSameKeyRunsInOrder() throws InterruptedException {
+        final List<Integer> results = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            final int n = i;
+            executor.execute("room1", new Runnable() {
+                @Override
+                public void run() {
+                    results.add(n);
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, results.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void testSlowKeyDoesNotBlockOtherKeys() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch fastDone = new CountDownLatch(1);
+        String slowKey = "slow";
+        String fastKey = "fast";
+        for (int i = 0; executor.getNumStripes() > 1 && sameStripe(slowKey, fastKey); i++) {
+            fastKey = "fast" + i;
+        }
+        executor.execute(slowKey, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        executor.execute(fastKey, new Runnable() {
+            @Override
+            public void run() {
+                fastDone.countDown();
+            }
+        });
+        assertTrue(fastDone.await(5, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    @Test
+    public void testZeroStripesRunsOnCaller() {
+        StripedExecutor inline = new StripedExecutor("inline", 0, 1);
+        final Thread caller = Thread.currentThread();
+        final List<Thread> ran = new ArrayList<>();
+        inline.execute("key", new Runnable() {
+            @Override
+            public void run() {
+                ran.add(Thread.currentThread());
+            }
+        });
+        assertEquals(caller, ran.get(0));
+    }
+
+    @Test
+    public void testThreadPerTaskRunsInOrder() throws InterruptedException {
+        executor.shutdown();
+        executor = threadPerTask(1000);
+        testSameKeyRunsInOrder();
+    }
+
+    @Test
+    public void testThreadPerTaskRunsSlowKeysInParallel() throws InterruptedException {
+        executor.shutdown();
+        executor = threadPerTask(1000);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(200);
+        for (int i = 0; i < 200; i++) {
+            executor.execute("room" + i, new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        assertTrue("not bound by a number of stripes", started.await(5, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    @Test
+    public void testThreadPerTaskQueueBound() throws InterruptedException {
+        executor.shutdown();
+        executor = threadPerTask(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(3);
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            }
+        };
+        for (int i = 0; i < 3; i++) {
+            executor.execute("room", task);
+        }
+        try {
+            executor.execute("room", task);
+            fail("queue of the key is full");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        executor.execute("other", task);
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * @return runs tasks on virtual threads, or on a thread each where the JVM has none
+     */
+    private StripedExecutor threadPerTask(int queueSize) {
+        return new StripedExecutor(VirtualThreads.isSupported() ? VirtualThreads.newThreadPerTaskExecutor("test")
+                : Executors.newCachedThreadPool(new NamedThreadFactory("test")), queueSize);
+    }
+
+    private boolean sameStripe(String a, String b) {
+        return spread(a) % executor.getNumStripes() == spread(b) % executor.getNumStripes();
+    }
+
+    private int spread(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return h & 0x7fffffff;
+    }
+}
@@ -0,0 +1,37 @@
+package com.labs2160.slacker.plugin.chat.xmpp;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class VirtualThreadsTest {
+
+    @Test
+    public void testThreadPerTaskExecutor() throws Exception {
+        final ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("test", true);
+        if (!VirtualThreads.isSupported()) {
+            assertNull("older JVMs fall back to platform threads", executor);
+            return;
+        }
+        try {
+            final String name = executor.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    return Thread.currentThread().getName();
+                }
+            }).get(5, TimeUnit.SECONDS);
+            assertTrue(name, name.startsWith("test-"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testDisabled() {
+        assertNull(VirtualThreads.newThreadPerTaskExecutor("test", false));
+    }
+}
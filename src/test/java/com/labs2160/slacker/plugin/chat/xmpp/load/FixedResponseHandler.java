@@ -0,0 +1,46 @@
+package com.labs2160.slacker.plugin.chat.xmpp.load;
+
+import com.labs2160.slacker.api.RequestHandler;
+import com.labs2160.slacker.api.SlackerRequest;
+import com.labs2160.slacker.api.response.SlackerOutput;
+import com.labs2160.slacker.api.response.TextOutput;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Answers every request with the same text, optionally after a fixed delay to mimic a slow action.
+ */
+public class FixedResponseHandler implements RequestHandler {
+
+    private final SlackerOutput output;
+
+    private final long delayMillis;
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    public FixedResponseHandler(String text, long delayMillis) {
+        this.output = new TextOutput(text);
+        this.delayMillis = delayMillis;
+    }
+
+    @Override
+    public Future<SlackerOutput> handle(SlackerRequest request) {
+        requests.incrementAndGet();
+        final FutureTask<SlackerOutput> future = new FutureTask<>(new Callable<SlackerOutput>() {
+            @Override
+            public SlackerOutput call() throws InterruptedException {
+                if (delayMillis > 0) Thread.sleep(delayMillis);
+                return output;
+            }
+        });
+        future.run();
+        return future;
+    }
+
+    public int getRequests() {
+        return requests.get();
+    }
+}
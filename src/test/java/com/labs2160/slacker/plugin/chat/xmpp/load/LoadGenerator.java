@@ -0,0 +1,180 @@
+package com.labs2160.slacker.plugin.chat.xmpp.load;
+
+import com.labs2160.slacker.plugin.chat.xmpp.server.LocalXMPPServer;
+import com.labs2160.slacker.plugin.chat.xmpp.server.XmlElement;
+import org.jxmpp.util.XmppStringUtils;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simulates many users talking to the bot through a {@link LocalXMPPServer} and measures how long it takes
+ * from injecting a request until the bot's reply reaches the server.
+ * <p>
+ * Replies are matched to requests per conversation (room or user) in FIFO order, which holds because the
+ * collectors process the requests of one conversation in the order they were received.
+ */
+public class LoadGenerator implements LocalXMPPServer.StanzaListener {
+
+    public static class Report {
+        public final int sent;
+        public final int received;
+        public final long elapsedMillis;
+        private final long [] latencies;
+
+        Report(int sent, long elapsedMillis, long [] latencies) {
+            this.sent = sent;
+            this.received = latencies.length;
+            this.elapsedMillis = elapsedMillis;
+            this.latencies = latencies;
+            Arrays.sort(this.latencies);
+        }
+
+        /** @return latency percentile in ms */
+        public double percentile(double p) {
+            if (latencies.length == 0) return Double.NaN;
+            int index = (int) Math.ceil(p / 100.0 * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(index, latencies.length - 1))] / 1e6;
+        }
+
+        public double throughput() {
+            return elapsedMillis == 0 ? 0 : received * 1000.0 / elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("sent=%d received=%d elapsed=%dms throughput=%.1f/s latency(ms) p50=%.2f p90=%.2f p99=%.2f max=%.2f",
+                    sent, received, elapsedMillis, throughput(), percentile(50), percentile(90), percentile(99), percentile(100));
+        }
+    }
+
+    private final LocalXMPPServer server;
+
+    private final String botJid;
+
+    /** conversation (room or user bare JID) -> injection times of the requests not yet answered */
+    private final Map<String, Queue<Long>> pending = new ConcurrentHashMap<>();
+
+    private final Queue<Long> latencies = new ConcurrentLinkedQueue<>();
+
+    private volatile CountDownLatch outstanding = new CountDownLatch(0);
+
+    /**
+     * @param botJid bare JID of the bot under test - only its stanzas are counted as replies
+     */
+    public LoadGenerator(LocalXMPPServer server, String botJid) {
+        this.server = server;
+        this.botJid = botJid;
+        server.addListener(this);
+    }
+
+    /**
+     * Post requests to the given rooms, spread over a number of virtual users per room, as fast as the server
+     * accepts them (or at the given rate, if positive), then wait for the replies.
+     */
+    public Report runRooms(List<String> roomIds, int usersPerRoom, int messagesPerRoom, String body,
+                           double ratePerSecond, long timeoutMillis) throws InterruptedException {
+        start(roomIds.size() * messagesPerRoom);
+        final long begin = System.nanoTime();
+        int sent = 0;
+        for (int i = 0; i < messagesPerRoom; i++) {
+            for (String roomId : roomIds) {
+                final String roomJid = roomId.indexOf('@') < 0 ? roomId + "@" + server.getMucDomain() : roomId;
+                pendingFor(roomJid).add(System.nanoTime());
+                server.sendGroupchat(roomJid, "user" + (i % usersPerRoom), body);
+                pace(begin, ++sent, ratePerSecond);
+            }
+        }
+        return finish(begin, sent, timeoutMillis);
+    }
+
+    /**
+     * Send one-on-one requests to the bot from the given number of virtual users.
+     */
+    public Report runChats(int users, int messagesPerUser, String body, double ratePerSecond, long timeoutMillis)
+            throws InterruptedException {
+        start(users * messagesPerUser);
+        final long begin = System.nanoTime();
+        int sent = 0;
+        for (int i = 0; i < messagesPerUser; i++) {
+            for (int u = 0; u < users; u++) {
+                final String userJid = "user" + u + "@" + server.getDomain();
+                pendingFor(userJid).add(System.nanoTime());
+                server.sendChat(userJid + "/load", botJid, body);
+                pace(begin, ++sent, ratePerSecond);
+            }
+        }
+        return finish(begin, sent, timeoutMillis);
+    }
+
+    /**
+     * Expect one reply for each of the given conversations (used for endpoint fan-out).
+     */
+    public void expect(Collection<String> conversations) {
+        start(conversations.size());
+        final long now = System.nanoTime();
+        for (String conversation : conversations) {
+            pendingFor(conversation).add(now);
+        }
+    }
+
+    /**
+     * Wait for the replies announced with {@link #expect(Collection)}.
+     */
+    public Report await(long begin, int sent, long timeoutMillis) throws InterruptedException {
+        return finish(begin, sent, timeoutMillis);
+    }
+
+    public void close() {
+        server.removeListener(this);
+    }
+
+    @Override
+    public void stanzaReceived(String from, XmlElement stanza) {
+        if (!"message".equals(stanza.getName()) || stanza.getChild("body", null) == null
+                || !botJid.equals(XmppStringUtils.parseBareJid(from))) {
+            return;
+        }
+        final long now = System.nanoTime();
+        Queue<Long> queue = pending.get(XmppStringUtils.parseBareJid(stanza.getAttribute("to")));
+        Long injected = queue == null ? null : queue.poll();
+        if (injected != null) {
+            latencies.add(now - injected);
+            outstanding.countDown();
+        }
+    }
+
+    private void start(int expected) {
+        pending.clear();
+        latencies.clear();
+        outstanding = new CountDownLatch(expected);
+    }
+
+    private Queue<Long> pendingFor(String conversation) {
+        Queue<Long> queue = pending.get(conversation);
+        if (queue == null) {
+            queue = new ConcurrentLinkedQueue<>();
+            pending.put(conversation, queue);
+        }
+        return queue;
+    }
+
+    private void pace(long begin, int sent, double ratePerSecond) throws InterruptedException {
+        if (ratePerSecond <= 0) return;
+        final long due = begin + (long) (sent * 1e9 / ratePerSecond);
+        final long wait = due - System.nanoTime();
+        if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+    }
+
+    private Report finish(long begin, int sent, long timeoutMillis) throws InterruptedException {
+        outstanding.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+        final Long [] values = latencies.toArray(new Long[0]);
+        final long [] result = new long[values.length];
+        for (int i = 0; i < values.length; i++) result[i] = values[i];
+        return new Report(sent, elapsed, result);
+    }
+}
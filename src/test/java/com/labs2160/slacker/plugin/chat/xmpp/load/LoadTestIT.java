@@ -0,0 +1,241 @@
+package com.labs2160.slacker.plugin.chat.xmpp.load;
+
+import com.labs2160.slacker.api.Resource;
+import com.labs2160.slacker.api.response.TextOutput;
+import com.labs2160.slacker.plugin.chat.xmpp.XMPPResource;
+import com.labs2160.slacker.plugin.chat.xmpp.hipchat.HipChatCollector;
+import com.labs2160.slacker.plugin.chat.xmpp.hipchat.HipChatEndpoint;
+import com.labs2160.slacker.plugin.chat.xmpp.slack.SlackCollector;
+import com.labs2160.slacker.plugin.chat.xmpp.server.LocalXMPPServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * End-to-end load test of the collectors and the endpoint against a {@link LocalXMPPServer}.
+ * The load can be tuned with system properties: loadRooms, loadUsers, loadMessages (per room or user),
+ * loadRate (injected messages per second, 0 = as fast as possible), loadHandlerDelay (ms) and
+ * loadConnections (XMPP connections of the bot). loadRoster sets the contacts of the bot for the login profiles.
+ * <p>
+ * Smack hands every incoming stanza to a single listener thread with a queue of 100, and closes the connection
+ * when that queue overflows - unthrottled bursts measure that limit rather than the bot.
+ */
+public class LoadTestIT {
+
+    private final static int ROOMS = Integer.getInteger("loadRooms", 20);
+
+    private final static int USERS = Integer.getInteger("loadUsers", 50);
+
+    private final static int MESSAGES = Integer.getInteger("loadMessages", 100);
+
+    private final static double RATE = Double.parseDouble(System.getProperty("loadRate", "1000"));
+
+    private final static long HANDLER_DELAY = Long.getLong("loadHandlerDelay", 0);
+
+    private final static int CONNECTIONS = Integer.getInteger("loadConnections", 1);
+
+    private final static long TIMEOUT = 60000;
+
+    private LocalXMPPServer server;
+
+    private XMPPResource xmpp;
+
+    private LoadGenerator generator;
+
+    @Before
+    public void before() throws Exception {
+        server = new LocalXMPPServer();
+        server.start(0);
+        Properties config = server.clientConfiguration("bot", "Bot", "bot");
+        // the rate limits protect real servers - measure the bot, not the limiter
+        config.put("sendRate", "0");
+        config.put("sendRatePerDestination", "0");
+        config.put("sendQueueCapacity", "100000");
+        config.put("connections", "" + CONNECTIONS);
+        xmpp = new XMPPResource();
+        xmpp.setConfiguration(config);
+        generator = new LoadGenerator(server, "bot@" + server.getDomain());
+    }
+
+    @After
+    public void after() {
+        generator.close();
+        xmpp.shutdown();
+        server.stop();
+    }
+
+    @Test
+    public void testHipChatCollectorRooms() throws Exception {
+        HipChatCollector collector = new HipChatCollector();
+        collector.setComponents(resources(), collectorConfig());
+        collector.start(new FixedResponseHandler("pong", HANDLER_DELAY));
+        assertTrue(collector.awaitStartup(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        LoadGenerator.Report report = generator.runRooms(roomIds(), USERS, MESSAGES, "bot ping", RATE, TIMEOUT);
+        System.out.println("HipChatCollector rooms: " + report);
+        assertEquals(report.sent, report.received);
+    }
+
+    @Test
+    public void testHipChatCollectorStartup() throws Exception {
+        final int rooms = Integer.getInteger("loadStartupRooms", 200);
+        final List<String> roomIds = new ArrayList<>();
+        for (int i = 0; i < rooms; i++) {
+            roomIds.add("startup" + i);
+            server.sendGroupchat("startup" + i, "alice", "bot stale request");
+        }
+        Properties props = collectorConfig();
+        props.put("mucRooms", join(roomIds));
+        HipChatCollector collector = new HipChatCollector();
+        collector.setComponents(resources(), props);
+
+        final long begin = System.nanoTime();
+        collector.start(new FixedResponseHandler("pong", HANDLER_DELAY));
+        assertTrue(collector.awaitStartup(TIMEOUT, TimeUnit.MILLISECONDS));
+        System.out.println("HipChatCollector joined " + rooms + " rooms in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) + " ms");
+        assertEquals(rooms, collector.getMetrics().getRoomJoins());
+        assertEquals("history is not replayed", 0, collector.getMetrics().getRequestsReceived());
+    }
+
+    @Test
+    public void testHipChatCollectorChats() throws Exception {
+        HipChatCollector collector = new HipChatCollector();
+        collector.setComponents(resources(), collectorConfig());
+        collector.start(new FixedResponseHandler("pong", HANDLER_DELAY));
+        assertTrue(collector.awaitStartup(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        LoadGenerator.Report report = generator.runChats(USERS, MESSAGES, "ping", RATE, TIMEOUT);
+        System.out.println("HipChatCollector chats: " + report);
+        assertEquals(report.sent, report.received);
+    }
+
+    @Test
+    public void testSlackCollectorRooms() throws Exception {
+        SlackCollector collector = new SlackCollector();
+        collector.setComponents(resources(), collectorConfig());
+        collector.start(new FixedResponseHandler("pong", HANDLER_DELAY));
+        assertTrue(collector.awaitStartup(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        LoadGenerator.Report report = generator.runRooms(roomIds(), USERS, MESSAGES, "bot ping", RATE, TIMEOUT);
+        System.out.println("SlackCollector rooms: " + report);
+        assertEquals(report.sent, report.received);
+    }
+
+    @Test
+    public void testHipChatEndpointFanOut() throws Exception {
+        xmpp.login();
+        Properties props = new Properties();
+        props.put("XMPPResourceRef", "xmpp");
+        props.put("mucRooms", join(roomIds()));
+        List<String> people = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            people.add("user" + i + "@" + server.getDomain());
+        }
+        props.put("people", join(people));
+        HipChatEndpoint endpoint = new HipChatEndpoint();
+        endpoint.setComponents(resources(), props);
+
+        List<String> targets = new ArrayList<>(people);
+        for (String roomId : roomIds()) {
+            targets.add(roomId + "@" + server.getMucDomain());
+        }
+        for (int i = 0; i < MESSAGES; i++) {
+            generator.expect(targets);
+            final long begin = System.nanoTime();
+            assertTrue(endpoint.deliverResponse(new TextOutput("build #" + i + " passed")));
+            LoadGenerator.Report report = generator.await(begin, targets.size(), TIMEOUT);
+            assertEquals(report.sent, report.received);
+            if (i == 0 || i == MESSAGES - 1) {
+                System.out.println("HipChatEndpoint delivery #" + i + ": " + report);
+            }
+        }
+    }
+
+    @Test
+    public void testLoginProfiles() throws Exception {
+        final int contacts = Integer.getInteger("loadRoster", 5000);
+        server.setRoster(contacts);
+        for (String profile : new String[] {"default", "bot"}) {
+            // twice each - the first login warms up the JIT
+            login(profile, contacts);
+            login(profile, contacts);
+        }
+    }
+
+    /**
+     * Logs in with the profile and prints how long until the roster and the presences of the contacts were
+     * processed, and how much more heap is used while connected.
+     */
+    private void login(String profile, int contacts) throws InterruptedException {
+        final Properties config = server.clientConfiguration("bot", "Bot", "bot");
+        config.put("botProfile", "" + "bot".equals(profile));
+        final long heapBefore = usedHeap();
+        final XMPPResource resource = new XMPPResource();
+        try {
+            final long begin = System.nanoTime();
+            resource.setConfiguration(config);
+            resource.login();
+            final long deadline = System.currentTimeMillis() + TIMEOUT;
+            final int rosterEntries = "bot".equals(profile) ? 0 : contacts;
+            while ((resource.getRosterEntries() < rosterEntries
+                    || resource.getMetrics().getPresencesReceived() < contacts)
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+            assertEquals(rosterEntries, resource.getRosterEntries());
+            System.out.println(profile + " profile with " + contacts + " contacts: logged in in " + millis + " ms, "
+                    + resource.getRosterEntries() + " roster entries, " + resource.getPresencesCached()
+                    + " presences cached, heap +" + (usedHeap() - heapBefore) / 1024 + " KB");
+        } finally {
+            resource.shutdown();
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        final Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private Map<String, Resource> resources() {
+        Map<String, Resource> resources = new HashMap<>();
+        resources.put("xmpp", xmpp);
+        return resources;
+    }
+
+    private Properties collectorConfig() {
+        Properties props = new Properties();
+        props.put("XMPPResourceRef", "xmpp");
+        props.put("mucRooms", join(roomIds()));
+        props.put("dispatchQueueSize", "" + (MESSAGES * Math.max(ROOMS, USERS)));
+        return props;
+    }
+
+    private List<String> roomIds() {
+        List<String> rooms = new ArrayList<>();
+        for (int i = 0; i < ROOMS; i++) {
+            rooms.add("room" + i);
+        }
+        return rooms;
+    }
+
+    private static String join(List<String> values) {
+        StringBuilder sb = new StringBuilder();
+        for (String value : values) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(value);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,38 @@
+package com.labs2160.slacker.plugin.chat.xmpp.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketsCoverValues() {
+        for (long micros : new long[] {0, 1, 7, 8, 15, 16, 100, 1000, 123456, 1L << 30, 1L << 39}) {
+            final int bucket = LatencyHistogram.bucketOf(micros);
+            assertTrue("upper bound of " + micros, LatencyHistogram.upperBoundOf(bucket) >= micros);
+            if (bucket > 0) {
+                assertTrue("lower bound of " + micros, LatencyHistogram.upperBoundOf(bucket - 1) < micros);
+            }
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileMillis(99), 0);
+        for (int ms = 1; ms <= 100; ms++) {
+            histogram.record(ms * 1000L);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(50, histogram.getPercentileMillis(50), 50 * 0.13);
+        assertEquals(99, histogram.getPercentileMillis(99), 99 * 0.13);
+        assertEquals(100, histogram.getPercentileMillis(100), 0);
+        assertEquals(100, histogram.getMaxMillis(), 0);
+        assertEquals(50.5, histogram.getMeanMillis(), 0.001);
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxMillis(), 0);
+    }
+}
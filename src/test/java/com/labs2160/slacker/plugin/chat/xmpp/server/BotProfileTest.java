@@ -0,0 +1,92 @@
+package com.labs2160.slacker.plugin.chat.xmpp.server;
+
+import com.labs2160.slacker.plugin.chat.xmpp.XMPPResource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+public class BotProfileTest {
+
+    private final static int CONTACTS = 500;
+
+    private LocalXMPPServer server;
+
+    private XMPPResource xmpp;
+
+    @Before
+    public void before() throws Exception {
+        server = new LocalXMPPServer();
+        server.start(0);
+        server.setRoster(CONTACTS);
+    }
+
+    @After
+    public void after() {
+        if (xmpp != null) xmpp.shutdown();
+        server.stop();
+    }
+
+    @Test
+    public void testDefaultProfile() throws InterruptedException {
+        login(new Properties());
+        awaitPresences(CONTACTS);
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (xmpp.getRosterEntries() < CONTACTS && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(CONTACTS, xmpp.getRosterEntries());
+        assertEquals("the roster keeps the presences", -1, xmpp.getPresencesCached());
+        assertNotNull(xmpp.getPresence(contact(0)));
+    }
+
+    @Test
+    public void testBotProfile() throws InterruptedException {
+        final Properties config = new Properties();
+        config.put("botProfile", "true");
+        config.put("presenceCacheSize", "100");
+        login(config);
+        awaitPresences(CONTACTS);
+        assertEquals("roster not loaded", 0, xmpp.getRosterEntries());
+        assertEquals(100, xmpp.getPresencesCached());
+        assertNotNull("most recent presence kept", xmpp.getPresence(contact(CONTACTS - 1)));
+        assertNull("oldest presence dropped", xmpp.getPresence(contact(0)));
+    }
+
+    @Test
+    public void testNoPresences() throws InterruptedException {
+        final Properties config = new Properties();
+        config.put("botProfile", "true");
+        config.put("presenceCacheSize", "0");
+        login(config);
+        awaitPresences(CONTACTS);
+        assertEquals(0, xmpp.getPresencesCached());
+        assertNull(xmpp.getPresence(contact(0)));
+    }
+
+    private void login(Properties profile) {
+        xmpp = new XMPPResource();
+        final Properties config = server.clientConfiguration("bot", "Bot", "bot");
+        config.putAll(profile);
+        xmpp.setConfiguration(config);
+        xmpp.login();
+    }
+
+    /**
+     * presences are counted whatever the profile - the server sends them anyway
+     */
+    private void awaitPresences(int expected) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (xmpp.getMetrics().getPresencesReceived() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(xmpp.getMetrics().getPresencesReceived() >= expected);
+    }
+
+    private String contact(int i) {
+        return "contact" + i + "@" + server.getDomain();
+    }
+}
@@ -0,0 +1,87 @@
+package com.labs2160.slacker.plugin.chat.xmpp.server;
+
+import com.labs2160.slacker.plugin.chat.xmpp.XMPPResource;
+import com.labs2160.slacker.plugin.chat.xmpp.metrics.ResourceMetrics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CompressionTest {
+
+    private LocalXMPPServer server;
+
+    private XMPPResource xmpp;
+
+    private final BlockingQueue<XmlElement> fromBot = new LinkedBlockingQueue<>();
+
+    @Before
+    public void before() throws Exception {
+        server = new LocalXMPPServer();
+        server.start(0);
+        server.addListener(new LocalXMPPServer.StanzaListener() {
+            @Override
+            public void stanzaReceived(String from, XmlElement stanza) {
+                if ("message".equals(stanza.getName())) fromBot.add(stanza);
+            }
+        });
+    }
+
+    @After
+    public void after() {
+        if (xmpp != null) xmpp.shutdown();
+        server.stop();
+    }
+
+    @Test
+    public void testCompressed() throws InterruptedException {
+        server.setCompression(true);
+        login();
+        assertEquals(1, xmpp.getCompressedConnections());
+
+        send();
+        final ResourceMetrics metrics = xmpp.getMetrics();
+        assertTrue(metrics.getSocketBytesSent() > 0);
+        assertTrue("stream compressed: " + metrics.getSocketBytesSent() + " < " + metrics.getStreamBytesSent(),
+                metrics.getSocketBytesSent() < metrics.getStreamBytesSent());
+        assertTrue(metrics.getSocketBytesReceived() < metrics.getStreamBytesReceived());
+    }
+
+    @Test
+    public void testServerWithoutCompression() throws InterruptedException {
+        login();
+        assertTrue(xmpp.isActive());
+        assertEquals(0, xmpp.getCompressedConnections());
+
+        send();
+        final ResourceMetrics metrics = xmpp.getMetrics();
+        assertTrue(metrics.getSocketBytesSent() > 0);
+        assertEquals(metrics.getStreamBytesSent(), metrics.getSocketBytesSent());
+        assertEquals(metrics.getStreamBytesReceived(), metrics.getSocketBytesReceived());
+    }
+
+    private void login() {
+        xmpp = new XMPPResource();
+        final Properties config = server.clientConfiguration("bot", "Bot", "bot");
+        config.put("compression", "true");
+        xmpp.setConfiguration(config);
+        xmpp.login();
+    }
+
+    private void send() throws InterruptedException {
+        final StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            body.append("build #").append(i).append(" passed\n");
+        }
+        assertTrue(xmpp.sendMessage(xmpp.getChatHandles().get("alice@localhost"), body.toString()));
+        final XmlElement received = fromBot.poll(5, TimeUnit.SECONDS);
+        assertNotNull(received);
+        assertEquals(body.toString().trim(), received.getChildText("body").trim());
+    }
+}
@@ -0,0 +1,118 @@
+package com.labs2160.slacker.plugin.chat.xmpp.server;
+
+import com.labs2160.slacker.api.Resource;
+import com.labs2160.slacker.plugin.chat.xmpp.XMPPResource;
+import com.labs2160.slacker.plugin.chat.xmpp.hipchat.HipChatCollector;
+import com.labs2160.slacker.plugin.chat.xmpp.load.FixedResponseHandler;
+import org.jivesoftware.smack.tcp.XMPPTCPConnection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * XMPPResource with several connections against the local server.
+ */
+public class ConnectionPoolTest {
+
+    private final static int ROOMS = 12;
+
+    private LocalXMPPServer server;
+
+    private XMPPResource xmpp;
+
+    private HipChatCollector collector;
+
+    /** message stanzas sent by the bot, with the full JID of the connection that sent them */
+    private final BlockingQueue<String []> fromBot = new LinkedBlockingQueue<>();
+
+    @Before
+    public void before() throws Exception {
+        server = new LocalXMPPServer();
+        server.start(0);
+        server.addListener(new LocalXMPPServer.StanzaListener() {
+            @Override
+            public void stanzaReceived(String from, XmlElement stanza) {
+                if ("message".equals(stanza.getName())) {
+                    fromBot.add(new String[] {from, stanza.getAttribute("to"), stanza.getChildText("body")});
+                }
+            }
+        });
+
+        Properties config = server.clientConfiguration("bot", "Bot", "bot");
+        config.put("connections", "3");
+        xmpp = new XMPPResource();
+        xmpp.setConfiguration(config);
+        Map<String, Resource> resources = new HashMap<>();
+        resources.put("xmpp", xmpp);
+        Properties props = new Properties();
+        props.put("XMPPResourceRef", "xmpp");
+        props.put("mucRooms", rooms());
+        collector = new HipChatCollector();
+        collector.setComponents(resources, props);
+        collector.start(new FixedResponseHandler("pong", 0));
+        assertTrue(collector.awaitStartup(10, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void after() {
+        collector.shutdown();
+        server.stop();
+    }
+
+    @Test
+    public void testRoomsShardedOverConnections() throws InterruptedException {
+        assertEquals(3, xmpp.getConnections().size());
+        assertTrue(xmpp.isActive());
+
+        final Set<String> occupants = new HashSet<>();
+        for (int i = 0; i < ROOMS; i++) {
+            final String roomJid = "room" + i + "@" + server.getMucDomain();
+            final String occupant = server.getOccupant(roomJid, "Bot");
+            assertEquals("joined through its assigned connection", xmpp.getConnection(roomJid).getUser(), occupant);
+            occupants.add(occupant);
+        }
+        assertTrue("rooms spread over connections: " + occupants, occupants.size() > 1);
+
+        for (int i = 0; i < ROOMS; i++) {
+            server.sendGroupchat("room" + i, "alice", "bot ping");
+        }
+        for (int i = 0; i < ROOMS; i++) {
+            String [] reply = fromBot.poll(5, TimeUnit.SECONDS);
+            assertNotNull(reply);
+            assertEquals("pong", reply[2]);
+            assertEquals("answered through the connection in the room", xmpp.getConnection(reply[1]).getUser(), reply[0]);
+        }
+    }
+
+    @Test
+    public void testChatAnsweredOnce() throws InterruptedException {
+        server.sendChat("alice@localhost/desk", "bot@localhost", "ping");
+        String [] reply = fromBot.poll(5, TimeUnit.SECONDS);
+        assertNotNull(reply);
+        assertEquals("pong", reply[2]);
+        assertNull("only the primary connection gets messages for the bare JID", fromBot.poll(300, TimeUnit.MILLISECONDS));
+
+        // a chat addressed to a secondary connection is answered as well
+        final XMPPTCPConnection secondary = xmpp.getConnections().get(2);
+        server.sendChat("carol@localhost/desk", secondary.getUser(), "ping");
+        reply = fromBot.poll(5, TimeUnit.SECONDS);
+        assertNotNull(reply);
+        assertEquals("pong", reply[2]);
+    }
+
+    private static String rooms() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < ROOMS; i++) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append("room").append(i);
+        }
+        return sb.toString();
+    }
+}
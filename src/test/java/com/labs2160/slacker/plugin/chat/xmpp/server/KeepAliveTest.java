@@ -0,0 +1,117 @@
+package com.labs2160.slacker.plugin.chat.xmpp.server;
+
+import com.labs2160.slacker.plugin.chat.xmpp.XMPPResource;
+import com.labs2160.slacker.plugin.chat.xmpp.metrics.ResourceMetrics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+public class KeepAliveTest {
+
+    private LocalXMPPServer server;
+
+    private XMPPResource xmpp;
+
+    @Before
+    public void before() throws Exception {
+        server = new LocalXMPPServer();
+        server.start(0);
+    }
+
+    @After
+    public void after() {
+        if (xmpp != null) xmpp.shutdown();
+        server.stop();
+    }
+
+    @Test
+    public void testPingAnswered() throws InterruptedException {
+        login("PING", 200);
+        awaitAnswered(2);
+        assertTrue(server.getPingsReceived() >= 2);
+        assertEquals(0, xmpp.getMetrics().getKeepAlivesMissed());
+        assertTrue(xmpp.getLastRoundTripMillis() >= 0);
+        assertTrue(xmpp.isActive());
+    }
+
+    @Test
+    public void testSkippedWhileBusy() throws InterruptedException {
+        login("PING", 500);
+        final long before = server.getPingsReceived();
+        // traffic in both directions, well within the interval
+        for (int i = 0; i < 30; i++) {
+            server.sendChat("alice@localhost/desk", "bot@localhost", "ping " + i);
+            assertTrue(xmpp.sendMessage(xmpp.getChatHandles().get("user" + i + "@localhost"), "pong " + i));
+            Thread.sleep(50);
+        }
+        assertEquals("no keepalive while busy", before, server.getPingsReceived());
+
+        Thread.sleep(1500);
+        assertTrue("keepalive once idle", server.getPingsReceived() > before);
+    }
+
+    @Test
+    public void testUnansweredPingsHandOverToReconnect() throws InterruptedException {
+        login("PING", 200);
+        server.setAnswerPings(false);
+        final ResourceMetrics metrics = xmpp.getMetrics();
+
+        awaitReconnects(1);
+        assertEquals("dead after keepAliveMaxMissed pings", 2, metrics.getKeepAlivesMissed());
+        // the count starts over on the new connection rather than declaring it dead on its first miss
+        awaitReconnects(2);
+        assertEquals(4, metrics.getKeepAlivesMissed());
+
+        server.setAnswerPings(true);
+        awaitAnswered(1);
+        assertTrue(xmpp.getConnection().isAuthenticated());
+        assertTrue(xmpp.isActive());
+    }
+
+    @Test
+    public void testWhitespace() throws InterruptedException {
+        login("WHITESPACE", 200);
+        server.setAnswerPings(false);
+        final long bytesSent = xmpp.getMetrics().getSocketBytesSent();
+        Thread.sleep(1000);
+        assertTrue("whitespace sent while idle", xmpp.getMetrics().getSocketBytesSent() > bytesSent);
+        assertEquals(0, server.getPingsReceived());
+        assertEquals(0, xmpp.getMetrics().getKeepAlivesMissed());
+        assertEquals(0, xmpp.getMetrics().getReconnects());
+        assertTrue(xmpp.isActive());
+    }
+
+    private void login(String mode, long interval) {
+        xmpp = new XMPPResource();
+        final Properties config = server.clientConfiguration("bot", "Bot", "bot");
+        config.put("keepAliveMode", mode);
+        config.put("keepAliveInterval", "" + interval);
+        config.put("keepAliveTimeout", "200");
+        config.put("keepAliveMaxMissed", "2");
+        config.put("reconnectInitialDelay", "100");
+        config.put("sendRate", "0");
+        config.put("sendRatePerDestination", "0");
+        xmpp.setConfiguration(config);
+        xmpp.login();
+    }
+
+    private void awaitAnswered(long answered) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (xmpp.getMetrics().getKeepAlivesAnswered() < answered && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(xmpp.getMetrics().getKeepAlivesAnswered() >= answered);
+    }
+
+    private void awaitReconnects(long reconnects) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (xmpp.getMetrics().getReconnects() < reconnects && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(reconnects, xmpp.getMetrics().getReconnects());
+    }
+}
@@ -0,0 +1,712 @@
+package com.labs2160.slacker.plugin.chat.xmpp.server;
+
+import org.jivesoftware.smack.util.stringencoder.Base64;
+import org.jxmpp.util.XmppStringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * In-process stand-in for an XMPP server (HipChat, Slack), just enough for the components in this plugin:
+ * SASL PLAIN (any password), resource binding, one-on-one chats, and multi-user chat rooms (join, leave,
+ * groupchat, history) and optionally zlib stream compression (XEP-0138) and stream management (XEP-0198,
+ * acknowledgements only - streams cannot be resumed). No TLS.
+ * <p>
+ * Besides the real (TCP) clients, the server can inject messages from virtual users, so load tests can
+ * simulate thousands of people and rooms with a single bot connection. Every stanza sent by a real client
+ * is reported to the registered {@link StanzaListener}s.
+ */
+public class LocalXMPPServer {
+
+    private final static Logger logger = LoggerFactory.getLogger(LocalXMPPServer.class);
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final static int HISTORY_SIZE = 20;
+
+    private final static int PRESENCE_BATCH = 50;
+
+    /** ms */
+    private final static long PRESENCE_BATCH_PAUSE = 5;
+
+    private final static String SM_NAMESPACE = "urn:xmpp:sm:3";
+
+    /** Notified of every stanza received from a real client */
+    public interface StanzaListener {
+        void stanzaReceived(String from, XmlElement stanza);
+    }
+
+    private static class Room {
+        /** nickname -> full JID of real occupants */
+        final Map<String, String> occupants = new ConcurrentHashMap<>();
+        final Deque<XmlElement> history = new ArrayDeque<>();
+    }
+
+    private class Session implements Runnable {
+        final Socket socket;
+        final Object writeLock = new Object();
+        Writer writer;
+        boolean compressed;
+        String fullJid;
+        String authenticatedUser;
+        /** available (initial presence sent) sessions with a non-negative priority get the messages for the bare JID */
+        volatile boolean available;
+        volatile int priority;
+        /** stanzas received since stream management was enabled, -1 if it is not */
+        volatile long handled = -1;
+
+        Session(Socket socket) throws IOException {
+            this.socket = socket;
+            this.writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), UTF8));
+        }
+
+        @Override
+        public void run() {
+            try {
+                XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+                parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
+                parser.setInput(new InputStreamReader(socket.getInputStream(), UTF8));
+                int event = parser.getEventType();
+                while (event != XmlPullParser.END_DOCUMENT) {
+                    if (event == XmlPullParser.START_TAG) {
+                        if ("stream:stream".equals(parser.getName())) {
+                            openStream();
+                        } else {
+                            XmlElement element = XmlElement.parse(parser);
+                            if ("compress".equals(element.getName())) {
+                                compress(parser);
+                            } else if (SM_NAMESPACE.equals(element.getAttribute("xmlns"))) {
+                                streamManagement(element);
+                            } else {
+                                handle(this, element);
+                            }
+                        }
+                    } else if (event == XmlPullParser.END_TAG && "stream:stream".equals(parser.getName())) {
+                        break;
+                    }
+                    event = parser.next();
+                }
+            } catch (SocketException | EOFException e) {
+                logger.debug("Connection from {} closed - {}", fullJid, e.getMessage());
+            } catch (IOException | XmlPullParserException e) {
+                if (running) logger.warn("Error reading from {} - {}", fullJid, e.getMessage());
+            } finally {
+                close();
+            }
+        }
+
+        void openStream() throws IOException {
+            final String features;
+            if (authenticatedUser == null) {
+                features = "<mechanisms xmlns='urn:ietf:params:xml:ns:xmpp-sasl'><mechanism>PLAIN</mechanism></mechanisms>";
+            } else {
+                features = (compression && !compressed ? "<compression xmlns='http://jabber.org/features/compress'><method>zlib</method></compression>" : "")
+                        + (streamManagement ? "<sm xmlns='" + SM_NAMESPACE + "'/>" : "")
+                        + "<bind xmlns='urn:ietf:params:xml:ns:xmpp-bind'/><session xmlns='urn:ietf:params:xml:ns:xmpp-session'/>";
+            }
+            write("<?xml version='1.0'?><stream:stream xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams'"
+                    + " from='" + domain + "' id='" + nextId() + "' version='1.0'>"
+                    + "<stream:features>" + features + "</stream:features>");
+        }
+
+        /**
+         * Switch both directions to zlib; the client restarts the stream once it has seen &lt;compressed/&gt;.
+         */
+        void compress(XmlPullParser parser) throws IOException, XmlPullParserException {
+            synchronized (writeLock) {
+                write("<compressed xmlns='http://jabber.org/protocol/compress'/>");
+                writer = new BufferedWriter(new OutputStreamWriter(
+                        new DeflaterOutputStream(socket.getOutputStream(), new Deflater(), true), UTF8));
+            }
+            compressed = true;
+            parser.setInput(new InputStreamReader(new InflaterInputStream(socket.getInputStream(), new Inflater()) {
+                @Override
+                public int available() throws IOException {
+                    // InflaterInputStream claims there is more until the end - the reader would block for it
+                    return inf.needsInput() ? 0 : super.available();
+                }
+            }, UTF8));
+        }
+
+        void streamManagement(XmlElement element) throws IOException {
+            switch (element.getName()) {
+                case "enable":
+                    handled = 0;
+                    write("<enabled xmlns='" + SM_NAMESPACE + "' id='sm" + nextId() + "' resume='true'/>");
+                    break;
+                case "r":
+                    write("<a xmlns='" + SM_NAMESPACE + "' h='" + handled + "'/>");
+                    acksSent.incrementAndGet();
+                    break;
+                case "resume":
+                    write("<failed xmlns='" + SM_NAMESPACE + "'><item-not-found xmlns='urn:ietf:params:xml:ns:xmpp-stanzas'/></failed>");
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        void send(XmlElement stanza) {
+            try {
+                write(stanza.toXML());
+                stanzasSent.incrementAndGet();
+            } catch (IOException e) {
+                logger.debug("Cannot send to {} - {}", fullJid, e.getMessage());
+                close();
+            }
+        }
+
+        void write(String xml) throws IOException {
+            synchronized (writeLock) {
+                writer.write(xml);
+                writer.flush();
+            }
+        }
+
+        void close() {
+            if (fullJid != null && sessions.remove(fullJid) != null) {
+                for (Map.Entry<String, Room> room : rooms.entrySet()) {
+                    for (Map.Entry<String, String> occupant : room.getValue().occupants.entrySet()) {
+                        if (occupant.getValue().equals(fullJid)) {
+                            room.getValue().occupants.remove(occupant.getKey());
+                        }
+                    }
+                }
+            }
+            allSessions.remove(this);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private final String domain;
+
+    private final String mucDomain;
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    private final List<Session> allSessions = new CopyOnWriteArrayList<>();
+
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+
+    private final List<StanzaListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicInteger ids = new AtomicInteger();
+
+    private final AtomicLong stanzasReceived = new AtomicLong();
+
+    private final AtomicLong stanzasSent = new AtomicLong();
+
+    /** groupchat messages from non-occupants */
+    private final AtomicLong rejected = new AtomicLong();
+
+    private ServerSocket serverSocket;
+
+    private volatile boolean compression;
+
+    private volatile boolean streamManagement;
+
+    /** contacts on every user's roster, all available - stands in for a large organization */
+    private volatile int rosterSize;
+
+    private final AtomicLong acksSent = new AtomicLong();
+
+    /** off to stand in for a server that stopped responding */
+    private volatile boolean answerPings = true;
+
+    private final AtomicLong pingsReceived = new AtomicLong();
+
+    /** rooms whose joins are never answered */
+    private final Set<String> unresponsiveRooms = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private volatile boolean running;
+
+    public LocalXMPPServer(String domain, String mucDomain) {
+        this.domain = domain;
+        this.mucDomain = mucDomain;
+    }
+
+    public LocalXMPPServer() {
+        this("localhost", "conference.localhost");
+    }
+
+    /**
+     * Start listening on the given port (0 for any free port).
+     */
+    public void start(int port) throws IOException {
+        serverSocket = new ServerSocket(port, 50, InetAddress.getByName("localhost"));
+        running = true;
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (running) {
+                    try {
+                        Socket socket = serverSocket.accept();
+                        socket.setTcpNoDelay(true);
+                        Session session = new Session(socket);
+                        allSessions.add(session);
+                        Thread reader = new Thread(session, "xmpp-server-session-" + nextId());
+                        reader.setDaemon(true);
+                        reader.start();
+                    } catch (IOException e) {
+                        if (running) logger.warn("Accept failed - {}", e.getMessage());
+                    }
+                }
+            }
+        }, "xmpp-server-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        logger.info("Local XMPP server for {} listening on port {}", domain, getPort());
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        dropConnections();
+    }
+
+    /**
+     * Close all client sockets without ending the streams, as a network failure would.
+     */
+    public void dropConnections() {
+        for (Session session : allSessions) {
+            session.close();
+        }
+    }
+
+    /**
+     * Offer zlib stream compression to clients that log in from now on.
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Offer stream management (XEP-0198) to clients that log in from now on.
+     */
+    public void setStreamManagement(boolean streamManagement) {
+        this.streamManagement = streamManagement;
+    }
+
+    /**
+     * Put this many contacts (contact0, contact1, ...) on every user's roster. They are all available, so a client
+     * gets a presence from each of them after its initial presence.
+     */
+    public void setRoster(int contacts) {
+        this.rosterSize = contacts;
+    }
+
+    /**
+     * Answer XEP-0199 pings, or drop them as a server that stopped responding would (the connections stay open).
+     */
+    public void setAnswerPings(boolean answerPings) {
+        this.answerPings = answerPings;
+    }
+
+    /**
+     * Never answer joins to the room, as an overloaded MUC service would.
+     */
+    public void ignoreJoins(String roomId) {
+        unresponsiveRooms.add(roomId);
+    }
+
+    /**
+     * @return XEP-0199 pings received from clients, answered or not
+     */
+    public long getPingsReceived() {
+        return pingsReceived.get();
+    }
+
+    /**
+     * @return stream management acknowledgements sent to clients
+     */
+    public long getAcksSent() {
+        return acksSent.get();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    public String getMucDomain() {
+        return mucDomain;
+    }
+
+    /**
+     * @return XMPPResource configuration for a client of this server
+     */
+    public Properties clientConfiguration(String user, String mucNickname, String mucKeyword) {
+        Properties config = new Properties();
+        config.put("host", domain);
+        config.put("port", "" + getPort());
+        config.put("user", user + "@" + domain);
+        config.put("password", "secret");
+        config.put("mucNickname", mucNickname);
+        config.put("mucDomain", mucDomain);
+        config.put("mucKeyword", mucKeyword);
+        return config;
+    }
+
+    public void addListener(StanzaListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(StanzaListener listener) {
+        listeners.remove(listener);
+    }
+
+    public long getStanzasReceived() {
+        return stanzasReceived.get();
+    }
+
+    public long getStanzasSent() {
+        return stanzasSent.get();
+    }
+
+    /**
+     * @return groupchat messages turned away because the sender was not in the room
+     */
+    public long getMessagesRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return nicknames of the real clients in the room
+     */
+    public Set<String> getOccupants(String roomId) {
+        Room room = rooms.get(roomJid(roomId));
+        return room == null ? Collections.<String>emptySet() : new HashSet<>(room.occupants.keySet());
+    }
+
+    /**
+     * @return full JID of the real client that occupies the room under the given nickname, null if none
+     */
+    public String getOccupant(String roomId, String nickname) {
+        Room room = rooms.get(roomJid(roomId));
+        return room == null ? null : room.occupants.get(nickname);
+    }
+
+    /**
+     * Post a message to a room on behalf of a virtual user.
+     */
+    public void sendGroupchat(String roomId, String nickname, String body) {
+        final String roomJid = roomJid(roomId);
+        XmlElement msg = new XmlElement("message")
+                .setAttribute("id", "v" + nextId())
+                .setAttribute("type", "groupchat")
+                .setAttribute("from", roomJid + "/" + nickname)
+                .addChild(new XmlElement("body").setText(body));
+        broadcast(getRoom(roomJid), msg);
+    }
+
+    /**
+     * Send a one-on-one chat message on behalf of a virtual user.
+     */
+    public void sendChat(String fromJid, String toJid, String body) {
+        XmlElement msg = new XmlElement("message")
+                .setAttribute("id", "v" + nextId())
+                .setAttribute("type", "chat")
+                .setAttribute("from", fromJid)
+                .addChild(new XmlElement("body").setText(body));
+        route(toJid, msg);
+    }
+
+    /**
+     * Send a chat state notification (XEP-0085) without a body, e.g. "composing", on behalf of a virtual user.
+     */
+    public void sendChatState(String fromJid, String toJid, String state) {
+        XmlElement msg = new XmlElement("message")
+                .setAttribute("id", "v" + nextId())
+                .setAttribute("type", "chat")
+                .setAttribute("from", fromJid)
+                .addChild(new XmlElement(state).setAttribute("xmlns", "http://jabber.org/protocol/chatstates"));
+        route(toJid, msg);
+    }
+
+    /**
+     * Send a mediated room invitation (XEP-0045 7.8.2) on behalf of a virtual user.
+     */
+    public void sendInvitation(String roomId, String inviterJid, String toJid) {
+        XmlElement msg = new XmlElement("message")
+                .setAttribute("id", "v" + nextId())
+                .setAttribute("from", roomJid(roomId))
+                .addChild(new XmlElement("x").setAttribute("xmlns", "http://jabber.org/protocol/muc#user")
+                        .addChild(new XmlElement("invite").setAttribute("from", inviterJid)));
+        route(toJid, msg);
+    }
+
+    private String roomJid(String roomId) {
+        return roomId.indexOf('@') < 0 ? roomId + "@" + mucDomain : roomId;
+    }
+
+    private Room getRoom(String roomJid) {
+        Room room = rooms.get(roomJid);
+        if (room == null) {
+            rooms.put(roomJid, new Room());
+            room = rooms.get(roomJid);
+        }
+        return room;
+    }
+
+    private String nextId() {
+        return Integer.toString(ids.incrementAndGet());
+    }
+
+    private void handle(Session session, XmlElement element) throws IOException {
+        final String name = element.getName();
+        if ("auth".equals(name)) {
+            authenticate(session, element);
+            return;
+        }
+        if (session.fullJid == null && !"iq".equals(name)) {
+            return; // not bound yet
+        }
+        stanzasReceived.incrementAndGet();
+        if (session.handled >= 0) session.handled++;
+        if (session.fullJid != null) {
+            for (StanzaListener listener : listeners) {
+                listener.stanzaReceived(session.fullJid, element);
+            }
+        }
+        if ("iq".equals(name)) {
+            handleIq(session, element);
+        } else if ("presence".equals(name)) {
+            handlePresence(session, element);
+        } else if ("message".equals(name)) {
+            handleMessage(session, element);
+        }
+    }
+
+    private void authenticate(Session session, XmlElement auth) throws IOException {
+        // PLAIN: [authzid] NUL authcid NUL password
+        String[] parts = new String(Base64.decode(auth.getText()), UTF8).split("\u0000");
+        String user = parts.length > 1 ? parts[1] : parts[0];
+        session.authenticatedUser = user.indexOf('@') < 0 ? user + "@" + domain : user;
+        session.write("<success xmlns='urn:ietf:params:xml:ns:xmpp-sasl'/>");
+    }
+
+    private void handleIq(Session session, XmlElement iq) {
+        final String type = iq.getAttribute("type");
+        final String to = iq.getAttribute("to");
+        if ("result".equals(type) || "error".equals(type)) {
+            if (to != null) route(to, iq.copy().setAttribute("from", session.fullJid));
+            return;
+        }
+        if (iq.getChild("ping", "urn:xmpp:ping") != null) {
+            pingsReceived.incrementAndGet();
+            if (!answerPings) return;
+        }
+
+        XmlElement result = new XmlElement("iq").setAttribute("type", "result").setAttribute("id", iq.getAttribute("id"));
+        XmlElement bind = iq.getChild("bind", "urn:ietf:params:xml:ns:xmpp-bind");
+        if (bind != null) {
+            String resource = bind.getChildText("resource");
+            if (resource == null) resource = "r" + nextId();
+            session.fullJid = session.authenticatedUser + "/" + resource;
+            Session previous = sessions.get(session.fullJid);
+            if (previous != null && previous != session) previous.close(); // resource conflict - newest wins
+            sessions.put(session.fullJid, session);
+            result.addChild(new XmlElement("bind").setAttribute("xmlns", "urn:ietf:params:xml:ns:xmpp-bind")
+                    .addChild(new XmlElement("jid").setText(session.fullJid)));
+        } else if (iq.getChild("query", "jabber:iq:roster") != null) {
+            final XmlElement query = new XmlElement("query").setAttribute("xmlns", "jabber:iq:roster");
+            for (int i = 0; i < rosterSize; i++) {
+                query.addChild(new XmlElement("item").setAttribute("jid", contact(i))
+                        .setAttribute("name", "Contact " + i).setAttribute("subscription", "both"));
+            }
+            result.addChild(query);
+        } else if (to != null && !to.equals(domain) && sessions.containsKey(to)) {
+            route(to, iq.copy().setAttribute("from", session.fullJid));
+            return;
+        }
+        // session, ping, disco and everything else: empty result
+        if (to != null) result.setAttribute("from", to);
+        session.send(result);
+    }
+
+    private void handlePresence(Session session, XmlElement presence) {
+        final String to = presence.getAttribute("to");
+        if (to == null) {
+            // broadcast presence - the contacts do not care, only remember the availability
+            final boolean initial = !session.available;
+            session.available = !"unavailable".equals(presence.getAttribute("type"));
+            final String priority = presence.getChildText("priority");
+            session.priority = priority == null ? 0 : Integer.parseInt(priority.trim());
+            if (initial && session.available) sendContactPresences(session);
+            return;
+        }
+        if (!mucDomain.equals(XmppStringUtils.parseDomain(to))) {
+            return;
+        }
+        final String roomJid = XmppStringUtils.parseBareJid(to);
+        final String nickname = XmppStringUtils.parseResource(to);
+        final Room room = getRoom(roomJid);
+
+        if ("unavailable".equals(presence.getAttribute("type"))) {
+            room.occupants.remove(nickname);
+            XmlElement left = occupantPresence(roomJid, nickname, true).setAttribute("type", "unavailable");
+            session.send(left.copy().setAttribute("to", session.fullJid));
+            broadcast(room, left);
+            return;
+        }
+        if (unresponsiveRooms.contains(XmppStringUtils.parseLocalpart(roomJid))) {
+            return;
+        }
+
+        for (String other : room.occupants.keySet()) {
+            session.send(occupantPresence(roomJid, other, false).setAttribute("to", session.fullJid));
+        }
+        room.occupants.put(nickname, session.fullJid);
+        broadcastExcept(room, occupantPresence(roomJid, nickname, false), nickname);
+        session.send(occupantPresence(roomJid, nickname, true).setAttribute("to", session.fullJid));
+
+        if (wantsHistory(presence)) {
+            List<XmlElement> history;
+            synchronized (room.history) {
+                history = new ArrayList<>(room.history);
+            }
+            for (XmlElement msg : history) {
+                session.send(msg.copy().setAttribute("to", session.fullJid));
+            }
+        }
+    }
+
+    private String contact(int i) {
+        return "contact" + i + "@" + domain;
+    }
+
+    /**
+     * Tell the session that its contacts are available, in batches - Smack closes the connection when more than
+     * 100 stanzas wait for its listener thread, so a single burst of thousands would measure that limit.
+     */
+    private void sendContactPresences(Session session) {
+        final int contacts = rosterSize;
+        for (int begin = 0; begin < contacts; begin += PRESENCE_BATCH) {
+            final int end = Math.min(contacts, begin + PRESENCE_BATCH);
+            final StringBuilder presences = new StringBuilder();
+            for (int i = begin; i < end; i++) {
+                presences.append(new XmlElement("presence").setAttribute("from", contact(i) + "/desk")
+                        .setAttribute("to", session.fullJid).toXML());
+            }
+            try {
+                if (begin > 0) Thread.sleep(PRESENCE_BATCH_PAUSE);
+                session.write(presences.toString());
+                stanzasSent.addAndGet(end - begin);
+            } catch (IOException e) {
+                logger.debug("Cannot send to {} - {}", session.fullJid, e.getMessage());
+                session.close();
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private boolean wantsHistory(XmlElement presence) {
+        XmlElement x = presence.getChild("x", "http://jabber.org/protocol/muc");
+        XmlElement history = x == null ? null : x.getChild("history", null);
+        return history == null || !("0".equals(history.getAttribute("maxstanzas")) || "0".equals(history.getAttribute("maxchars")));
+    }
+
+    private XmlElement occupantPresence(String roomJid, String nickname, boolean self) {
+        XmlElement x = new XmlElement("x").setAttribute("xmlns", "http://jabber.org/protocol/muc#user")
+                .addChild(new XmlElement("item").setAttribute("affiliation", "member").setAttribute("role", "participant"));
+        if (self) x.addChild(new XmlElement("status").setAttribute("code", "110"));
+        return new XmlElement("presence").setAttribute("from", roomJid + "/" + nickname).addChild(x);
+    }
+
+    private void handleMessage(Session session, XmlElement message) {
+        final String to = message.getAttribute("to");
+        if (to == null) return;
+        if ("groupchat".equals(message.getAttribute("type"))) {
+            final String roomJid = XmppStringUtils.parseBareJid(to);
+            final Room room = getRoom(roomJid);
+            String nickname = null;
+            for (Map.Entry<String, String> occupant : room.occupants.entrySet()) {
+                if (occupant.getValue().equals(session.fullJid)) nickname = occupant.getKey();
+            }
+            if (nickname == null) {
+                rejected.incrementAndGet();
+                session.send(new XmlElement("message").setAttribute("type", "error").setAttribute("from", roomJid)
+                        .setAttribute("id", message.getAttribute("id"))
+                        .addChild(new XmlElement("error").setAttribute("type", "cancel")
+                                .addChild(new XmlElement("not-acceptable").setAttribute("xmlns", "urn:ietf:params:xml:ns:xmpp-stanzas"))));
+                return;
+            }
+            XmlElement msg = message.copy().setAttribute("from", roomJid + "/" + nickname).setAttribute("to", null);
+            broadcast(room, msg);
+        } else {
+            route(to, message.copy().setAttribute("from", session.fullJid));
+        }
+    }
+
+    private void broadcast(Room room, XmlElement msg) {
+        broadcastExcept(room, msg, null);
+        if ("message".equals(msg.getName()) && msg.getChild("body", null) != null) {
+            synchronized (room.history) {
+                room.history.addLast(msg);
+                if (room.history.size() > HISTORY_SIZE) room.history.removeFirst();
+            }
+        }
+    }
+
+    private void broadcastExcept(Room room, XmlElement stanza, String exceptNickname) {
+        for (Map.Entry<String, String> occupant : room.occupants.entrySet()) {
+            if (occupant.getKey().equals(exceptNickname)) continue;
+            Session session = sessions.get(occupant.getValue());
+            if (session != null) session.send(stanza.copy().setAttribute("to", occupant.getValue()));
+        }
+    }
+
+    /**
+     * Deliver to a full JID, or to the available session of a bare JID with the highest (non-negative) priority.
+     * Stanzas for unknown (virtual) users are dropped.
+     */
+    private void route(String to, XmlElement stanza) {
+        stanza.setAttribute("to", to);
+        Session session = sessions.get(to);
+        if (session != null) {
+            session.send(stanza);
+            return;
+        }
+        final String bare = XmppStringUtils.parseBareJid(to);
+        Session best = null;
+        for (Session s : sessions.values()) {
+            if (s.available && s.priority >= 0 && bare.equals(XmppStringUtils.parseBareJid(s.fullJid))
+                    && (best == null || s.priority > best.priority)) {
+                best = s;
+            }
+        }
+        if (best != null) best.send(stanza);
+    }
+}
@@ -0,0 +1,313 @@
+package com.labs2160.slacker.plugin.chat.xmpp.server;
+
+import com.labs2160.slacker.api.Resource;
+import com.labs2160.slacker.api.response.TextOutput;
+import com.labs2160.slacker.plugin.chat.xmpp.OutputUtil;
+import com.labs2160.slacker.plugin.chat.xmpp.XMPPResource;
+import com.labs2160.slacker.plugin.chat.xmpp.hipchat.DeliveryReport;
+import com.labs2160.slacker.plugin.chat.xmpp.hipchat.HipChatCollector;
+import com.labs2160.slacker.plugin.chat.xmpp.hipchat.HipChatEndpoint;
+import com.labs2160.slacker.plugin.chat.xmpp.load.FixedResponseHandler;
+import com.labs2160.slacker.plugin.chat.xmpp.metrics.CollectorMetrics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LocalXMPPServerTest {
+
+    private LocalXMPPServer server;
+
+    private XMPPResource xmpp;
+
+    private HipChatCollector collector;
+
+    private FixedResponseHandler handler;
+
+    private final BlockingQueue<XmlElement> fromBot = new LinkedBlockingQueue<>();
+
+    @Before
+    public void before() throws Exception {
+        server = new LocalXMPPServer();
+        server.start(0);
+        server.addListener(new LocalXMPPServer.StanzaListener() {
+            @Override
+            public void stanzaReceived(String from, XmlElement stanza) {
+                if ("message".equals(stanza.getName())) fromBot.add(stanza);
+            }
+        });
+
+        xmpp = new XMPPResource();
+        Properties config = server.clientConfiguration("bot", "Bot", "bot");
+        config.put("maxMessageLength", "100");
+        xmpp.setConfiguration(config);
+        Map<String, Resource> resources = new HashMap<>();
+        resources.put("xmpp", xmpp);
+        Properties props = new Properties();
+        props.put("XMPPResourceRef", "xmpp");
+        props.put("mucRooms", "lobby");
+        props.put("autoAcceptInvitations", "true");
+        props.put("invitationAllowlist", "lobby, team*");
+        props.put("roomIdleTimeout", "1000");
+        props.put("cacheCommands", "status:60000");
+        props.put("senderRate", "0.1");
+        props.put("senderBurst", "3");
+        props.put("msgBusy", "busy");
+        collector = new HipChatCollector();
+        collector.setComponents(resources, props);
+        handler = new FixedResponseHandler("pong", 0);
+        collector.start(handler);
+        assertTrue(collector.awaitStartup(10, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void after() {
+        collector.shutdown();
+        server.stop();
+    }
+
+    @Test
+    public void testLoginAndJoin() {
+        assertTrue(xmpp.isActive());
+        assertTrue(server.getOccupants("lobby").contains("Bot"));
+    }
+
+    @Test
+    public void testRoomRequest() throws InterruptedException {
+        server.sendGroupchat("lobby", "alice", "hello everyone");
+        server.sendGroupchat("lobby", "alice", "bot ping");
+        XmlElement reply = fromBot.poll(5, TimeUnit.SECONDS);
+        assertNotNull(reply);
+        assertEquals("groupchat", reply.getAttribute("type"));
+        assertEquals("lobby@conference.localhost", reply.getAttribute("to"));
+        assertEquals("pong", reply.getChildText("body"));
+        assertNull("only addressed messages are answered", fromBot.poll(200, TimeUnit.MILLISECONDS));
+
+        assertEquals(1, collector.getMetrics().getRequestsReceived());
+        assertEquals(1, collector.getMetrics().getRequestsProcessed());
+        assertEquals(0, collector.getMetrics().getRequestErrors());
+        assertTrue(collector.getMetrics().getResponseLatencyP99Millis() > 0);
+        assertEquals(1, xmpp.getMetrics().getMessagesSent());
+    }
+
+    @Test
+    public void testMBeansRegistered() throws Exception {
+        assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(
+                new ObjectName("com.labs2160.slacker.plugin.chat.xmpp:type=XMPPResource,name=\"bot@localhost\""), "Connects"));
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(
+                new ObjectName("com.labs2160.slacker.plugin.chat.xmpp:type=HipChatCollector,name=\"bot@localhost\"")));
+    }
+
+    @Test
+    public void testRoomHistoryNotReplayed() throws InterruptedException {
+        server.sendGroupchat("archive", "alice", "bot ping");
+        collector.addRoom("archive");
+        assertTrue(collector.joinRooms().await(5, TimeUnit.SECONDS));
+        assertTrue(server.getOccupants("archive").contains("Bot"));
+        assertNull("old requests are not answered", fromBot.poll(300, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testInvitationAndIdleRoom() throws InterruptedException {
+        server.sendInvitation("secret", "alice@localhost/desk", "bot@localhost");
+        server.sendInvitation("team-a", "alice@localhost/desk", "bot@localhost");
+        assertTrue("invited room is joined", waitFor("team-a", true));
+        assertFalse(server.getOccupants("secret").contains("Bot"));
+        assertEquals(1, collector.getMetrics().getInvitationsAccepted());
+        assertEquals(1, collector.getMetrics().getInvitationsIgnored());
+
+        assertTrue("idle room is left", waitFor("team-a", false));
+        assertTrue("configured room is kept", server.getOccupants("lobby").contains("Bot"));
+        assertEquals(1, collector.getMetrics().getRoomsLeft());
+
+        server.sendInvitation("team-a", "alice@localhost/desk", "bot@localhost");
+        assertTrue("room is joined again when invited again", waitFor("team-a", true));
+    }
+
+    private boolean waitFor(String roomId, boolean joined) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (server.getOccupants(roomId).contains("Bot") != joined) {
+            if (System.currentTimeMillis() > deadline) return false;
+            Thread.sleep(20);
+        }
+        return true;
+    }
+
+    @Test
+    public void testCachedResponse() throws InterruptedException {
+        server.sendGroupchat("lobby", "alice", "bot status");
+        assertNotNull(fromBot.poll(5, TimeUnit.SECONDS));
+        server.sendGroupchat("lobby", "bob", "bot  STATUS");
+        XmlElement reply = fromBot.poll(5, TimeUnit.SECONDS);
+        assertNotNull(reply);
+        assertEquals("pong", reply.getChildText("body"));
+        assertEquals("second request is answered from the cache", 1, handler.getRequests());
+        assertEquals(1, collector.getMetrics().getResponsesCached());
+
+        server.sendGroupchat("lobby", "bob", "bot ping");
+        assertNotNull(fromBot.poll(5, TimeUnit.SECONDS));
+        server.sendGroupchat("lobby", "bob", "bot ping");
+        assertNotNull(fromBot.poll(5, TimeUnit.SECONDS));
+        assertEquals("commands not on the allowlist are not cached", 3, handler.getRequests());
+    }
+
+    @Test
+    public void testBusyReply() throws InterruptedException {
+        for (int i = 0; i < 5; i++) {
+            server.sendGroupchat("lobby", "carol", "bot ping " + i);
+        }
+        final List<String> replies = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            XmlElement reply = fromBot.poll(5, TimeUnit.SECONDS);
+            assertNotNull(reply);
+            replies.add(reply.getChildText("body"));
+        }
+        Collections.sort(replies);
+        assertEquals(Arrays.asList("busy", "busy", "pong", "pong", "pong"), replies);
+        assertEquals(3, handler.getRequests());
+        assertEquals(2, collector.getMetrics().getRequestsShed());
+
+        server.sendGroupchat("lobby", "dave", "bot ping");
+        assertEquals("other senders are not affected", "pong", fromBot.poll(5, TimeUnit.SECONDS).getChildText("body"));
+    }
+
+    @Test
+    public void testLongMessageIsSplit() throws InterruptedException {
+        final StringBuilder report = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            report.append("line ").append(i).append(" of the report\n");
+        }
+        assertTrue(xmpp.sendMessage(xmpp.getChatHandles().get("alice@localhost"), OutputUtil.createTextMessage(report.toString())));
+        final StringBuilder received = new StringBuilder();
+        XmlElement chunk;
+        while ((chunk = fromBot.poll(500, TimeUnit.MILLISECONDS)) != null) {
+            assertTrue(chunk.getChildText("body").length() <= 100);
+            assertTrue("split on line boundaries", chunk.getChildText("body").endsWith("report"));
+            received.append(chunk.getChildText("body")).append('\n');
+        }
+        assertEquals(report.toString(), received.toString());
+    }
+
+    @Test
+    public void testStageLatencies() throws InterruptedException {
+        server.sendGroupchat("lobby", "alice", "hello everyone");
+        server.sendGroupchat("lobby", "alice", "bot ping");
+        assertEquals("pong", fromBot.poll(5, TimeUnit.SECONDS).getChildText("body"));
+        final CollectorMetrics metrics = collector.getMetrics();
+        final long deadline = System.currentTimeMillis() + 5000; // the response may arrive before it is timed
+        while (metrics.getStageLatency(CollectorMetrics.Stage.SEND).getCount() == 0
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // the room also echoes the bot's reply, which is filtered as well
+        assertTrue("messages not addressed to the bot are filtered",
+                metrics.getStageLatency(CollectorMetrics.Stage.FILTER).getCount() >= 2);
+        for (CollectorMetrics.Stage stage : CollectorMetrics.Stage.values()) {
+            if (stage != CollectorMetrics.Stage.FILTER) {
+                assertEquals(stage.toString(), 1, metrics.getStageLatency(stage).getCount());
+            }
+        }
+    }
+
+    @Test
+    public void testEvictedRoomLeft() throws Exception {
+        final XMPPResource endpointXmpp = new XMPPResource();
+        final Properties config = server.clientConfiguration("notifier", "Notifier", "notifier");
+        config.put("handleCacheSize", "1");
+        endpointXmpp.setConfiguration(config);
+        endpointXmpp.login();
+        try {
+            endpoint(endpointXmpp, "news1").deliverResponse(new TextOutput("first"));
+            assertTrue(server.getOccupants("news1").contains("Notifier"));
+            endpoint(endpointXmpp, "news2").deliverResponse(new TextOutput("second"));
+            assertTrue(server.getOccupants("news2").contains("Notifier"));
+            assertFalse("left with its handle", server.getOccupants("news1").contains("Notifier"));
+        } finally {
+            endpointXmpp.shutdown();
+        }
+        assertTrue("kept by the collector", server.getOccupants("lobby").contains("Bot"));
+    }
+
+    @Test
+    public void testSlowRoomDoesNotHoldUpDelivery() throws Exception {
+        server.ignoreJoins("slow");
+        final Properties props = new Properties();
+        props.put("XMPPResourceRef", "xmpp");
+        props.put("mucRooms", "slow, news");
+        props.put("people", "alice@localhost");
+        props.put("deliveryTimeout", "2000");
+        final HipChatEndpoint endpoint = new HipChatEndpoint();
+        endpoint.setComponents(Collections.<String, Resource>singletonMap("xmpp", xmpp), props);
+        final ExecutorService caller = Executors.newSingleThreadExecutor();
+        try {
+            final Future<DeliveryReport> delivery = caller.submit(new Callable<DeliveryReport>() {
+                @Override
+                public DeliveryReport call() {
+                    return endpoint.deliver(new TextOutput("deployed"));
+                }
+            });
+            assertNotNull(fromBot.poll(1500, TimeUnit.MILLISECONDS));
+            assertNotNull(fromBot.poll(1500, TimeUnit.MILLISECONDS));
+            assertFalse("still waiting for the slow room", delivery.isDone());
+
+            final DeliveryReport report = delivery.get(5, TimeUnit.SECONDS);
+            assertFalse(report.isComplete());
+            assertEquals(Arrays.asList("news@conference.localhost", "alice@localhost"), report.getDelivered());
+            assertEquals(Collections.singleton("slow@conference.localhost"), report.getFailed().keySet());
+            assertNotNull(report.getFailed().get("slow@conference.localhost"));
+        } finally {
+            caller.shutdownNow();
+        }
+    }
+
+    private HipChatEndpoint endpoint(XMPPResource resource, String rooms) {
+        final Map<String, Resource> resources = new HashMap<>();
+        resources.put("xmpp", resource);
+        final Properties props = new Properties();
+        props.put("XMPPResourceRef", "xmpp");
+        props.put("mucRooms", rooms);
+        final HipChatEndpoint endpoint = new HipChatEndpoint();
+        endpoint.setComponents(resources, props);
+        return endpoint;
+    }
+
+    @Test
+    public void testChatStateIgnored() throws InterruptedException {
+        server.sendChatState("alice@localhost/desk", "bot@localhost", "composing");
+        server.sendChat("alice@localhost/desk", "bot@localhost", "ping");
+        server.sendChatState("alice@localhost/desk", "bot@localhost", "active");
+        XmlElement reply = fromBot.poll(5, TimeUnit.SECONDS);
+        assertNotNull(reply);
+        assertEquals("pong", reply.getChildText("body"));
+        assertNull("no reply without a body", fromBot.poll(500, TimeUnit.MILLISECONDS));
+        assertEquals(1, collector.getMetrics().getRequestsReceived());
+    }
+
+    @Test
+    public void testChatRequest() throws InterruptedException {
+        server.sendChat("alice@localhost/desk", "bot@localhost", "ping");
+        XmlElement reply = fromBot.poll(5, TimeUnit.SECONDS);
+        assertNotNull(reply);
+        assertEquals("chat", reply.getAttribute("type"));
+        assertEquals("alice@localhost/desk", reply.getAttribute("to"));
+        assertEquals("pong", reply.getChildText("body"));
+    }
+}
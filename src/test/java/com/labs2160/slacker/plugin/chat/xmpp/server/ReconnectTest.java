@@ -0,0 +1,126 @@
+package com.labs2160.slacker.plugin.chat.xmpp.server;
+
+import com.labs2160.slacker.api.Resource;
+import com.labs2160.slacker.plugin.chat.xmpp.OutputUtil;
+import com.labs2160.slacker.plugin.chat.xmpp.XMPPResource;
+import com.labs2160.slacker.api.response.TextOutput;
+import com.labs2160.slacker.plugin.chat.xmpp.hipchat.HipChatCollector;
+import com.labs2160.slacker.plugin.chat.xmpp.hipchat.HipChatEndpoint;
+import com.labs2160.slacker.plugin.chat.xmpp.load.FixedResponseHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ReconnectTest {
+
+    private LocalXMPPServer server;
+
+    private XMPPResource xmpp;
+
+    private HipChatCollector collector;
+
+    private final BlockingQueue<XmlElement> fromBot = new LinkedBlockingQueue<>();
+
+    private final BlockingQueue<XmlElement> roomPresences = new LinkedBlockingQueue<>();
+
+    @Before
+    public void before() throws Exception {
+        server = new LocalXMPPServer();
+        server.start(0);
+        server.addListener(new LocalXMPPServer.StanzaListener() {
+            @Override
+            public void stanzaReceived(String from, XmlElement stanza) {
+                if ("message".equals(stanza.getName())) fromBot.add(stanza);
+                final String to = stanza.getAttribute("to");
+                if ("presence".equals(stanza.getName()) && to != null && to.startsWith("lobby@")) {
+                    roomPresences.add(stanza);
+                }
+            }
+        });
+
+        xmpp = new XMPPResource();
+        final Properties config = server.clientConfiguration("bot", "Bot", "bot");
+        config.put("reconnectInitialDelay", "2000"); // long enough to send while disconnected
+        xmpp.setConfiguration(config);
+        final Map<String, Resource> resources = new HashMap<>();
+        resources.put("xmpp", xmpp);
+        final Properties props = new Properties();
+        props.put("XMPPResourceRef", "xmpp");
+        props.put("mucRooms", "lobby");
+        collector = new HipChatCollector();
+        collector.setComponents(resources, props);
+        collector.start(new FixedResponseHandler("pong", 0));
+        assertTrue(collector.awaitStartup(10, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void after() {
+        if (collector != null) collector.shutdown();
+        server.stop();
+    }
+
+    @Test
+    public void testRoomMessagesReplayedAfterRejoin() throws Exception {
+        awaitDisconnected();
+
+        final String roomJid = "lobby@" + server.getMucDomain();
+        assertTrue(xmpp.sendMessage(xmpp.getRoomHandles().get(roomJid), OutputUtil.createTextMessage("while away")));
+
+        final XmlElement replayed = fromBot.poll(10, TimeUnit.SECONDS);
+        assertNotNull(replayed);
+        assertEquals("while away", replayed.getChildText("body"));
+        assertTrue("sent by an occupant", server.getOccupants("lobby").contains("Bot"));
+        assertEquals(0, server.getMessagesRejected());
+        assertEquals(1, xmpp.getMetrics().getSendFailures());
+    }
+
+    @Test
+    public void testSharedRoomRejoinedOnce() throws Exception {
+        final Map<String, Resource> resources = new HashMap<>();
+        resources.put("xmpp", xmpp);
+        final Properties props = new Properties();
+        props.put("XMPPResourceRef", "xmpp");
+        props.put("mucRooms", "lobby");
+        final HipChatEndpoint endpoint = new HipChatEndpoint();
+        endpoint.setComponents(resources, props);
+        assertTrue(endpoint.deliverResponse(new TextOutput("joined by the collector")));
+        assertEquals(1, roomPresences.size());
+        roomPresences.clear();
+
+        awaitDisconnected();
+        final long deadline = System.currentTimeMillis() + 10000;
+        final String roomJid = "lobby@" + server.getMucDomain();
+        // the server forgot the occupant when the connection dropped
+        while (!(server.getOccupants("lobby").contains("Bot") && xmpp.isRoomJoined(roomJid))
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue("rejoined by the collector or the endpoint", xmpp.isRoomJoined(roomJid));
+        assertTrue(endpoint.deliverResponse(new TextOutput("still joined")));
+        Thread.sleep(200);
+        int joins = 0;
+        for (XmlElement presence : roomPresences) {
+            // Smack still thinks the room is joined and leaves it first
+            if (presence.getAttribute("type") == null) joins++;
+        }
+        assertEquals("joined once", 1, joins);
+    }
+
+    private void awaitDisconnected() throws InterruptedException {
+        server.dropConnections();
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (xmpp.getConnection().isConnected() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(xmpp.getConnection().isConnected());
+    }
+}
@@ -0,0 +1,113 @@
+package com.labs2160.slacker.plugin.chat.xmpp.server;
+
+import com.labs2160.slacker.api.Resource;
+import com.labs2160.slacker.plugin.chat.xmpp.XMPPResource;
+import com.labs2160.slacker.plugin.chat.xmpp.hipchat.HipChatCollector;
+import com.labs2160.slacker.plugin.chat.xmpp.load.FixedResponseHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StreamManagementTest {
+
+    private LocalXMPPServer server;
+
+    private XMPPResource xmpp;
+
+    private HipChatCollector collector;
+
+    private final BlockingQueue<XmlElement> fromBot = new LinkedBlockingQueue<>();
+
+    @Before
+    public void before() throws Exception {
+        server = new LocalXMPPServer();
+        server.start(0);
+        server.addListener(new LocalXMPPServer.StanzaListener() {
+            @Override
+            public void stanzaReceived(String from, XmlElement stanza) {
+                if ("message".equals(stanza.getName())) fromBot.add(stanza);
+            }
+        });
+    }
+
+    @After
+    public void after() {
+        if (collector != null) collector.shutdown();
+        server.stop();
+    }
+
+    @Test
+    public void testAcknowledgements() throws Exception {
+        server.setStreamManagement(true);
+        start();
+        assertTrue(xmpp.getConnection().isSmEnabled());
+
+        server.sendGroupchat("lobby", "alice", "bot ping");
+        assertReply();
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (server.getAcksSent() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue("messages are acknowledged", server.getAcksSent() > 0);
+
+        // streams are not resumed - the connection logs in and joins the room again
+        dropAndAwaitRejoin();
+        assertTrue(xmpp.getConnection().isSmEnabled());
+        server.sendGroupchat("lobby", "alice", "bot ping");
+        assertReply();
+    }
+
+    @Test
+    public void testServerWithoutStreamManagement() throws Exception {
+        start();
+        assertFalse(xmpp.getConnection().isSmEnabled());
+
+        dropAndAwaitRejoin();
+        server.sendGroupchat("lobby", "alice", "bot ping");
+        assertReply();
+    }
+
+    private void start() throws InterruptedException {
+        xmpp = new XMPPResource();
+        final Properties config = server.clientConfiguration("bot", "Bot", "bot");
+        config.put("streamManagement", "true");
+        config.put("reconnectInitialDelay", "10");
+        config.put("reconnectMaxDelay", "100");
+        xmpp.setConfiguration(config);
+        final Map<String, Resource> resources = new HashMap<>();
+        resources.put("xmpp", xmpp);
+        final Properties props = new Properties();
+        props.put("XMPPResourceRef", "xmpp");
+        props.put("mucRooms", "lobby");
+        collector = new HipChatCollector();
+        collector.setComponents(resources, props);
+        collector.start(new FixedResponseHandler("pong", 0));
+        assertTrue(collector.awaitStartup(10, TimeUnit.SECONDS));
+        assertEquals(1, collector.getMetrics().getRoomJoins());
+    }
+
+    private void dropAndAwaitRejoin() throws InterruptedException {
+        server.dropConnections();
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (collector.getMetrics().getRoomJoins() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(2, collector.getMetrics().getRoomJoins());
+        assertTrue(server.getOccupants("lobby").contains("Bot"));
+    }
+
+    private void assertReply() throws InterruptedException {
+        final XmlElement reply = fromBot.poll(10, TimeUnit.SECONDS);
+        assertNotNull(reply);
+        assertEquals("pong", reply.getChildText("body"));
+    }
+}
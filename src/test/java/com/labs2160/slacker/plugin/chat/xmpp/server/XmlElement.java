@@ -0,0 +1,164 @@
+package com.labs2160.slacker.plugin.chat.xmpp.server;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal XML element tree used by {@link LocalXMPPServer} to read and write stanzas.
+ * Namespace declarations are kept as plain attributes.
+ */
+public class XmlElement {
+
+    private final String name;
+
+    private final Map<String, String> attributes = new LinkedHashMap<>();
+
+    private final List<XmlElement> children = new ArrayList<>();
+
+    private String text;
+
+    public XmlElement(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Read the element the parser is positioned at (START_TAG), up to and including its END_TAG.
+     */
+    public static XmlElement parse(XmlPullParser parser) throws XmlPullParserException, IOException {
+        final XmlElement element = new XmlElement(parser.getName());
+        for (int i = 0; i < parser.getAttributeCount(); i++) {
+            element.attributes.put(parser.getAttributeName(i), parser.getAttributeValue(i));
+        }
+        StringBuilder text = null;
+        while (true) {
+            int event = parser.next();
+            if (event == XmlPullParser.START_TAG) {
+                element.children.add(parse(parser));
+            } else if (event == XmlPullParser.TEXT) {
+                if (text == null) text = new StringBuilder();
+                text.append(parser.getText());
+            } else if (event == XmlPullParser.END_TAG) {
+                break;
+            } else if (event == XmlPullParser.END_DOCUMENT) {
+                throw new IOException("Stream ended inside <" + element.name + ">");
+            }
+        }
+        if (text != null && element.children.isEmpty()) element.text = text.toString();
+        return element;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getAttribute(String key) {
+        return attributes.get(key);
+    }
+
+    public XmlElement setAttribute(String key, String value) {
+        if (value == null) {
+            attributes.remove(key);
+        } else {
+            attributes.put(key, value);
+        }
+        return this;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public XmlElement setText(String text) {
+        this.text = text;
+        return this;
+    }
+
+    public List<XmlElement> getChildren() {
+        return children;
+    }
+
+    public XmlElement addChild(XmlElement child) {
+        children.add(child);
+        return this;
+    }
+
+    /**
+     * @return first child with the given name (and namespace, if not null)
+     */
+    public XmlElement getChild(String childName, String xmlns) {
+        for (XmlElement child : children) {
+            if (child.name.equals(childName) && (xmlns == null || xmlns.equals(child.getAttribute("xmlns")))) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    public String getChildText(String childName) {
+        XmlElement child = getChild(childName, null);
+        return child == null ? null : child.text;
+    }
+
+    /**
+     * @return a copy that can be modified (e.g. readdressed) without affecting this element
+     */
+    public XmlElement copy() {
+        XmlElement copy = new XmlElement(name);
+        copy.attributes.putAll(attributes);
+        copy.text = text;
+        for (XmlElement child : children) {
+            copy.children.add(child.copy());
+        }
+        return copy;
+    }
+
+    public String toXML() {
+        StringBuilder sb = new StringBuilder();
+        appendTo(sb);
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return toXML();
+    }
+
+    private void appendTo(StringBuilder sb) {
+        sb.append('<').append(name);
+        for (Map.Entry<String, String> attr : attributes.entrySet()) {
+            sb.append(' ').append(attr.getKey()).append("='");
+            escape(sb, attr.getValue());
+            sb.append('\'');
+        }
+        if (children.isEmpty() && text == null) {
+            sb.append("/>");
+            return;
+        }
+        sb.append('>');
+        if (text != null) escape(sb, text);
+        for (XmlElement child : children) {
+            child.appendTo(sb);
+        }
+        sb.append("</").append(name).append('>');
+    }
+
+    private static void escape(StringBuilder sb, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '&': sb.append("&amp;"); break;
+                case '<': sb.append("&lt;"); break;
+                case '>': sb.append("&gt;"); break;
+                case '\'': sb.append("&apos;"); break;
+                case '"': sb.append("&quot;"); break;
+                default: sb.append(c);
+            }
+        }
+    }
+}